@@ -10,7 +10,9 @@ import { PreJavaTypeReference } from './prejavatypes/PreJavaTypeReference'
 export class TextFlow {
     lineStarts: string[] = []
 
-    private buffer: string = ''
+    // the text is accumulated in chunks, joined once when the content is needed
+    private chunks: string[] = []
+    private nbChars = 0
 
     /** 
      * 0 = nothing happened on current line yet,
@@ -33,8 +35,42 @@ export class TextFlow {
             .finishLine()
     }
 
+    /**
+     * Writes a javadoc block. Comments merged from several declarations of the same
+     * symbol are often identical, they are written once.
+     */
+    javaDocComments(comments: string[]): this {
+        let uniqueComments: string[] = []
+        let seen = new Set<string>()
+        comments.forEach(comment => {
+            // lines differing only by their trailing whitespace are the same line
+            let key = comment.replace(/[ \t]+$/gm, '').replace(/\s+$/, '')
+            if (seen.has(key))
+                return
+            seen.add(key)
+            uniqueComments.push(comment)
+        })
+
+        this.startJavaDocComments()
+        this.push(uniqueComments)
+        this.endJavaDocComments()
+        return this
+    }
+
     content(): string {
-        return this.buffer
+        if (this.chunks.length > 1)
+            this.chunks = [this.chunks.join('')]
+        return this.chunks.length ? this.chunks[0] : ''
+    }
+
+    /** number of characters written so far */
+    length(): number {
+        return this.nbChars
+    }
+
+    private append(text: string) {
+        this.chunks.push(text)
+        this.nbChars += text.length
     }
 
     pushLineStart(lineStart: string): this {
@@ -67,7 +103,7 @@ export class TextFlow {
         this.listStrings(text, parts)
 
         if (this.shouldInsertBlankLine) {
-            this.buffer += '\n'
+            this.append('\n')
             this.shouldInsertBlankLine = false
             this.currentPositionInLine = 0
         }
@@ -80,11 +116,11 @@ export class TextFlow {
 
             if (this.currentPositionInLine == 0) {
                 if (this.lineStarts)
-                    this.lineStarts.forEach(lineStart => this.buffer += lineStart)
+                    this.lineStarts.forEach(lineStart => this.append(lineStart))
                 this.currentPositionInLine = 1
             }
 
-            this.buffer += part
+            this.append(part)
         }
 
         return this
@@ -93,10 +129,10 @@ export class TextFlow {
     finishLine(): this {
         if (this.currentPositionInLine == 0) {
             if (this.lineStarts)
-                this.lineStarts.forEach(lineStart => this.buffer += lineStart)
+                this.lineStarts.forEach(lineStart => this.append(lineStart))
         }
         this.currentPositionInLine = 0
-        this.buffer += '\n'
+        this.append('\n')
         return this
     }
 
@@ -110,12 +146,17 @@ export class TextFlow {
 export class JavaWriter {
     imports: Map<PreJavaType, string> = new Map()
 
+    // all the types used by the unit, imported or not
+    referencedTypes: Set<PreJavaType> = new Set()
+
     constructor(public unitPackageName: string, public unitName: string) { }
 
     importType(type: PreJavaType): string {
         if (!type)
             console.log('cvc');
 
+        this.referencedTypes.add(type)
+
         if (type.getPackageName() == null || type.getPackageName() == this.unitPackageName || type.getPackageName() == 'java.lang')
             return type.getSimpleName(null)
 
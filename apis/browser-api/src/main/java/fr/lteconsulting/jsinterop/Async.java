@@ -0,0 +1,190 @@
+package fr.lteconsulting.jsinterop;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import fr.lteconsulting.jsinterop.browser.Array;
+import fr.lteconsulting.jsinterop.browser.Promise;
+import fr.lteconsulting.jsinterop.browser.PromiseLike;
+import fr.lteconsulting.jsinterop.browser.UnionOfPromiseLikeOfTAndT;
+import jsinterop.base.Js;
+
+/**
+  * Java facade over the native Promise, in the spirit of CompletableFuture.
+  *
+  * Consecutive synchronous stages (thenApply) are not attached to the promise
+  * one by one : they are composed on the Java side and attached as a single
+  * javascript callback when the chain needs a promise (thenCompose, thenAccept,
+  * exceptionally, allOf, anyOf or toPromise). A chain of ten thenApply thus
+  * costs one promise and one microtask instead of ten.
+  *
+  * As with CompletableFuture, every stage runs once :
+  * <ul>
+  * <li>the chains which are not consumed are attached at the end of the current
+  * turn (in one microtask for all of them), so a chain ending with thenApply runs
+  * anyway,</li>
+  * <li>a stage given a second branch is attached first, the branches then start
+  * from its promise,</li>
+  * <li>a stage fused in the callback of a chain keeps its result, so a branch
+  * taken from it later starts from that result.</li>
+  * </ul>
+  *
+  * <pre>
+  * Async&lt;Data&gt; parsed = Async.of(fetchText()).thenApply(Data::parse);
+  * parsed.thenApply(Data::summary).thenAccept(this::showSummary);
+  * parsed.thenApply(Data::rows).thenAccept(this::showRows); // Data::parse runs once
+  * </pre>
+  *
+  * An exception thrown by a stage rejects the promise and skips the following
+  * fused stages, as it would with separate promises.
+ */
+public final class Async<T> {
+    // stages created during the current turn, attached at its end if nothing consumed them
+    private static final List<Async<?>> unattachedStages = new ArrayList<>();
+
+    // null for a stage created from a promise
+    private final Async<?> parent;
+    private final Function<Object, Object> stage;
+    // number of stages chained from this one
+    private int branches;
+    private Promise<Object> attached;
+    // promise of the chain whose callback runs this stage, when it has been fused in it
+    private Promise<Object> fusedInto;
+    // result of the stage once the callback it is fused in has run it
+    private Object result;
+    private boolean hasResult;
+
+    private Async(Promise<Object> promise) {
+        this.parent = null;
+        this.stage = null;
+        this.attached = promise;
+    }
+
+    private Async(Async<?> parent, Function<Object, Object> stage) {
+        this.parent = parent;
+        this.stage = stage;
+
+        if (unattachedStages.isEmpty())
+            Promise.resolve().then(ignored -> {
+                attachUnconsumedStages();
+                return null;
+            });
+        unattachedStages.add(this);
+    }
+
+    public static <T> Async<T> of(PromiseLike<T> promise) {
+        return new Async<>(Js.<Promise<Object>> uncheckedCast(promise));
+    }
+
+    public static <T> Async<T> completed(T value) {
+        return new Async<>(Js.<Promise<Object>> uncheckedCast(Promise.resolve(Js.uncheckedCast(value))));
+    }
+
+    public static <T> Async<T> failed(Object reason) {
+        return new Async<>(Js.<Promise<Object>> uncheckedCast(Promise.reject(reason)));
+    }
+
+    /**
+      * Waits for all the given stages. The result list has the same order as the stages.
+     */
+    public static <T> Async<List<T>> allOf(Collection<Async<T>> stages) {
+        Promise<Array<T>> all = Promise.<T> all(Js.<Array<UnionOfPromiseLikeOfTAndT<T>>> uncheckedCast(toPromises(stages)));
+        return Async.<Array<T>> of(all).thenApply(JsCollections::asList);
+    }
+
+    /**
+      * Completes as soon as the first of the given stages is completed.
+     */
+    public static <T> Async<T> anyOf(Collection<Async<T>> stages) {
+        return of(Promise.<T> race(Js.<Array<UnionOfPromiseLikeOfTAndT<T>>> uncheckedCast(toPromises(stages))));
+    }
+
+    private static <T> Object[] toPromises(Collection<Async<T>> stages) {
+        Object[] promises = new Object[stages.size()];
+        int i = 0;
+        for (Async<T> stage : stages)
+            promises[i++] = stage.toPromise();
+        return promises;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <R> Async<R> thenApply(Function<? super T, ? extends R> fn) {
+        // the branches of a stage start from its promise, so that it runs once
+        if (++branches > 1)
+            toPromise();
+        return new Async<>(this, (Function<Object, Object>) fn);
+    }
+
+    public <R> Async<R> thenCompose(Function<? super T, Async<R>> fn) {
+        Promise<Object> next = Js.uncheckedCast(toPromise().then(value -> Js.uncheckedCast(fn.apply(value).toPromise())));
+        return new Async<>(next);
+    }
+
+    public Async<Void> thenAccept(Consumer<? super T> consumer) {
+        Async<Void> stage = thenApply(value -> {
+            consumer.accept(value);
+            return null;
+        });
+        return of(stage.toPromise());
+    }
+
+    public Async<T> exceptionally(Function<Object, ? extends T> fn) {
+        Promise<Object> next = toPromise().catch_(reason -> Js.uncheckedCast(fn.apply(reason)));
+        return new Async<>(next);
+    }
+
+    /**
+      * Returns the native promise of this stage, attaching the pending synchronous stages to it.
+     */
+    public Promise<T> toPromise() {
+        if (attached != null)
+            return Js.uncheckedCast(attached);
+
+        if (fusedInto != null) {
+            // the chain's callback has run or will run this stage, its result is taken from there
+            attached = Js.uncheckedCast(fusedInto.then(ignored -> Js.uncheckedCast(result),
+                    reason -> hasResult ? Js.uncheckedCast(result) : Js.uncheckedCast(Promise.reject(reason))));
+            return Js.uncheckedCast(attached);
+        }
+
+        // fuses the stages up to the first attached one (or having several branches, which is attached)
+        List<Async<?>> chain = new ArrayList<>();
+        Async<?> source = this;
+        do {
+            chain.add(source);
+            source = source.parent;
+        }
+        while (source.attached == null && source.fusedInto == null && source.branches == 1);
+        Collections.reverse(chain);
+
+        attached = Js.uncheckedCast(source.toPromise().then(value -> {
+            Object current = value;
+            for (int i = 0; i < chain.size(); i++) {
+                Async<?> fused = chain.get(i);
+                current = fused.stage.apply(current);
+                fused.result = current;
+                fused.hasResult = true;
+            }
+            return Js.uncheckedCast(current);
+        }));
+        for (int i = 0; i < chain.size() - 1; i++)
+            chain.get(i).fusedInto = attached;
+        return Js.uncheckedCast(attached);
+    }
+
+    /**
+      * Attaches the chains created during the turn which nothing consumed, from their last stage
+     */
+    private static void attachUnconsumedStages() {
+        List<Async<?>> stages = new ArrayList<>(unattachedStages);
+        unattachedStages.clear();
+        for (Async<?> stage : stages) {
+            if (stage.branches == 0)
+                stage.toPromise();
+        }
+    }
+}
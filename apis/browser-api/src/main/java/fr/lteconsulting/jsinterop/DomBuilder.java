@@ -0,0 +1,280 @@
+package fr.lteconsulting.jsinterop;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.lteconsulting.jsinterop.browser.Document;
+import fr.lteconsulting.jsinterop.browser.DocumentFragment;
+import fr.lteconsulting.jsinterop.browser.Element;
+import fr.lteconsulting.jsinterop.browser.HTMLTemplateElement;
+import fr.lteconsulting.jsinterop.browser.Node;
+import jsinterop.annotations.JsPackage;
+import jsinterop.annotations.JsType;
+import jsinterop.base.Js;
+
+/**
+  * Builds a DOM subtree detached from the document, in a DocumentFragment, and
+  * inserts it with a single operation. Building directly into the live document
+  * invalidates the style and the layout at each insertion, whereas the detached
+  * tree costs one recalculation when it is committed.
+  *
+  * <pre>
+  * DomBuilder builder = new DomBuilder(document);
+  * for (Item item : items)
+  *     builder.open("li").attributes("class", "item", "data-id", item.id).text(item.label).close();
+  * builder.appendTo(list);
+  * </pre>
+  *
+  * Repeated shapes (table rows...) are better built from a Template, whose
+  * instances are deep clones of its content, made natively in one call.
+ */
+public final class DomBuilder {
+    private static final int ELEMENT_NODE = 1;
+
+    private final NativeDocument document;
+    private final NativeNode fragment;
+    private final List<NativeNode> openElements = new ArrayList<>();
+
+    public DomBuilder(Document document) {
+        this.document = Js.uncheckedCast(document);
+        this.fragment = this.document.createDocumentFragment();
+    }
+
+    /**
+      * Appends a new element to the current element and makes it the current one
+     */
+    public DomBuilder open(String tagName) {
+        NativeNode element = document.createElement(tagName);
+        current().appendChild(element);
+        openElements.add(element);
+        return this;
+    }
+
+    /**
+      * Goes back to the parent of the current element
+     */
+    public DomBuilder close() {
+        if (openElements.isEmpty())
+            throw new IllegalStateException("no open element");
+        openElements.remove(openElements.size() - 1);
+        return this;
+    }
+
+    public DomBuilder attribute(String name, String value) {
+        currentElement().setAttribute(name, value);
+        return this;
+    }
+
+    /**
+      * Sets several attributes of the current element, given as name, value, name, value...
+     */
+    public DomBuilder attributes(String... namesAndValues) {
+        if (namesAndValues.length % 2 != 0)
+            throw new IllegalArgumentException("attributes are given as name and value pairs");
+
+        NativeElement element = currentElement();
+        for (int i = 0; i < namesAndValues.length; i += 2)
+            element.setAttribute(namesAndValues[i], namesAndValues[i + 1]);
+        return this;
+    }
+
+    /**
+      * Appends a text node to the current element
+     */
+    public DomBuilder text(String text) {
+        current().appendChild(document.createTextNode(text));
+        return this;
+    }
+
+    /**
+      * Appends an existing node (or fragment, or template instance) to the current element
+     */
+    public DomBuilder append(Node node) {
+        current().appendChild(Js.uncheckedCast(node));
+        return this;
+    }
+
+    public DomBuilder append(Template.Instance instance) {
+        return append(instance.node());
+    }
+
+    /**
+      * The current element, to be customized with the generated API
+     */
+    public Element element() {
+        return Js.uncheckedCast(currentElement());
+    }
+
+    /**
+      * The built tree. Inserting it in the document moves its content and leaves it empty.
+     */
+    public DocumentFragment fragment() {
+        return Js.uncheckedCast(fragment);
+    }
+
+    /**
+      * Appends the built tree to the given parent, in one insertion
+     */
+    public void appendTo(Node parent) {
+        Js.<NativeNode> uncheckedCast(parent).appendChild(fragment);
+        openElements.clear();
+    }
+
+    /**
+      * Inserts the built tree in the given parent before the reference child (at the end if it is null), in one insertion
+     */
+    public void insertBefore(Node parent, Node reference) {
+        Js.<NativeNode> uncheckedCast(parent).insertBefore(fragment, Js.uncheckedCast(reference));
+        openElements.clear();
+    }
+
+    private NativeNode current() {
+        return openElements.isEmpty() ? fragment : openElements.get(openElements.size() - 1);
+    }
+
+    private NativeElement currentElement() {
+        if (openElements.isEmpty())
+            throw new IllegalStateException("no open element");
+        return Js.uncheckedCast(current());
+    }
+
+    /**
+      * A DOM shape cloned for each use. The elements of the content having a
+      * data-slot attribute are the slots of the instances : their position in the
+      * content is computed once, so that an instance finds them by following child
+      * indices instead of querying its tree. An instance resolves its slots when it
+      * is created, they stay available after its content has been inserted.
+      *
+      * <pre>
+      * Template row = Template.of(document, "&lt;tr&gt;&lt;td data-slot='name'&gt;&lt;/td&gt;&lt;td data-slot='price'&gt;&lt;/td&gt;&lt;/tr&gt;");
+      * Template.Instance instance = row.instantiate();
+      * instance.slot("name").setTextContent(product.name);
+      * builder.append(instance);
+      * </pre>
+     */
+    public static final class Template {
+        private static final String SLOT_ATTRIBUTE = "data-slot";
+
+        private final NativeNode content;
+        // slot name -> child indices from the content to the slot element
+        private final Map<String, int[]> slotPaths = new HashMap<>();
+
+        private Template(NativeNode content) {
+            this.content = content;
+            findSlots(content, new ArrayList<>());
+        }
+
+        public static Template of(Document document, String html) {
+            NativeTemplateElement template = Js.uncheckedCast(Js.<NativeDocument> uncheckedCast(document).createElement("template"));
+            template.innerHTML = html;
+            return new Template(template.content);
+        }
+
+        public static Template of(HTMLTemplateElement template) {
+            // the page's template is left untouched, its slot attributes are removed from a copy
+            return new Template(Js.<NativeTemplateElement> uncheckedCast(template).content.cloneNode(true));
+        }
+
+        public Instance instantiate() {
+            return new Instance(content.cloneNode(true), slotPaths);
+        }
+
+        private void findSlots(NativeNode node, List<Integer> path) {
+            for (int i = 0; i < node.childNodes.length; i++) {
+                NativeNode child = node.childNodes.item(i);
+                if (child.nodeType != ELEMENT_NODE)
+                    continue;
+
+                path.add(i);
+                NativeElement element = Js.uncheckedCast(child);
+                String slot = element.getAttribute(SLOT_ATTRIBUTE);
+                if (slot != null) {
+                    slotPaths.put(slot, path.stream().mapToInt(Integer::intValue).toArray());
+                    element.removeAttribute(SLOT_ATTRIBUTE);
+                }
+                findSlots(child, path);
+                path.remove(path.size() - 1);
+            }
+        }
+
+        public static final class Instance {
+            private final NativeNode fragment;
+            private final Map<String, Element> slots = new HashMap<>();
+
+            private Instance(NativeNode fragment, Map<String, int[]> slotPaths) {
+                this.fragment = fragment;
+
+                // resolved before the fragment is inserted, since inserting it empties it
+                for (Map.Entry<String, int[]> entry : slotPaths.entrySet()) {
+                    NativeNode node = fragment;
+                    for (int index : entry.getValue())
+                        node = node.childNodes.item(index);
+                    slots.put(entry.getKey(), Js.uncheckedCast(node));
+                }
+            }
+
+            /**
+              * The cloned content, a DocumentFragment which is emptied when inserted
+             */
+            public Node node() {
+                return Js.uncheckedCast(fragment);
+            }
+
+            /**
+              * The element of the instance at the place of the given slot of the template,
+              * also once the instance has been inserted
+             */
+            public Element slot(String name) {
+                Element slot = slots.get(name);
+                if (slot == null)
+                    throw new IllegalArgumentException("unknown slot " + name);
+                return slot;
+            }
+        }
+    }
+
+    @JsType(isNative = true, namespace = JsPackage.GLOBAL, name = "Document")
+    private static class NativeDocument {
+        public native NativeNode createElement(String tagName);
+
+        public native NativeNode createTextNode(String data);
+
+        public native NativeNode createDocumentFragment();
+    }
+
+    @JsType(isNative = true, namespace = JsPackage.GLOBAL, name = "Node")
+    private static class NativeNode {
+        public int nodeType;
+        public NativeNodeList childNodes;
+
+        public native NativeNode appendChild(NativeNode child);
+
+        public native NativeNode insertBefore(NativeNode child, NativeNode reference);
+
+        public native NativeNode cloneNode(boolean deep);
+    }
+
+    @JsType(isNative = true, namespace = JsPackage.GLOBAL, name = "NodeList")
+    private static class NativeNodeList {
+        public int length;
+
+        public native NativeNode item(int index);
+    }
+
+    @JsType(isNative = true, namespace = JsPackage.GLOBAL, name = "Element")
+    private static class NativeElement extends NativeNode {
+        public native String getAttribute(String name);
+
+        public native void setAttribute(String name, String value);
+
+        public native void removeAttribute(String name);
+    }
+
+    @JsType(isNative = true, namespace = JsPackage.GLOBAL, name = "HTMLTemplateElement")
+    private static class NativeTemplateElement extends NativeElement {
+        public String innerHTML;
+        public NativeNode content;
+    }
+}
@@ -0,0 +1,186 @@
+package fr.lteconsulting.jsinterop;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import fr.lteconsulting.jsinterop.browser.Element;
+import fr.lteconsulting.jsinterop.browser.Event;
+import fr.lteconsulting.jsinterop.browser.EventListener;
+import fr.lteconsulting.prebuilt.Action;
+import jsinterop.annotations.JsPackage;
+import jsinterop.annotations.JsType;
+import jsinterop.base.Js;
+
+/**
+  * Routes the events happening inside a root element to Java handlers, with only
+  * one native listener per event type on the root, instead of one listener (and
+  * one javascript function) per element.
+  *
+  * Handlers are attached to a css selector, or to the value of a data attribute
+  * (data-row="42"). When an event happens, the elements from the target up to the
+  * root are visited : handlers whose selector matches the element, or whose
+  * attribute value is the element's one, are called with the event and the element.
+  * Calling stopPropagation() in a handler stops the visit.
+  *
+  * Adding and removing a handler is a map operation and does not touch the DOM,
+  * except for the first handler of an event type which registers the native listener.
+  *
+  * Events which do not bubble (focus, blur, mouseenter...) never reach the root,
+  * their bubbling counterparts (focusin, focusout, mouseover...) must be used.
+ */
+public final class EventDelegation {
+    private static final int ELEMENT_NODE = 1;
+
+    private final Element root;
+    private final Map<String, EventTypeRoutes> routesByType = new HashMap<>();
+
+    public EventDelegation(Element root) {
+        this.root = root;
+    }
+
+    /**
+      * Calls the handler for the events of the given type on the elements matching the selector.
+      * Returns an action which removes the handler.
+     */
+    public Action on(String eventType, String selector, BiConsumer<Event, Element> handler) {
+        return add(getRoutes(eventType).bySelector, selector, handler);
+    }
+
+    /**
+      * Calls the handler for the events of the given type on the elements whose attribute
+      * has the given value. Returns an action which removes the handler.
+     */
+    public Action onAttribute(String eventType, String attributeName, String value, BiConsumer<Event, Element> handler) {
+        EventTypeRoutes routes = getRoutes(eventType);
+        Map<String, Set<Route>> byValue = routes.byAttribute.get(attributeName);
+        if (byValue == null) {
+            byValue = new HashMap<>();
+            routes.byAttribute.put(attributeName, byValue);
+        }
+
+        Map<String, Set<Route>> routesByValue = byValue;
+        Action removal = add(routesByValue, value, handler);
+        return () -> {
+            removal.call();
+            if (routesByValue.isEmpty())
+                routes.byAttribute.remove(attributeName, routesByValue);
+        };
+    }
+
+    /**
+      * Removes the native listeners and all the handlers
+     */
+    public void dispose() {
+        routesByType.forEach((eventType, routes) -> root.removeEventListener(eventType, routes.listener));
+        routesByType.clear();
+    }
+
+    private EventTypeRoutes getRoutes(String eventType) {
+        EventTypeRoutes routes = routesByType.get(eventType);
+        if (routes == null) {
+            routes = new EventTypeRoutes();
+            EventTypeRoutes typeRoutes = routes;
+            routes.listener = event -> dispatch(typeRoutes, event);
+            routesByType.put(eventType, routes);
+            root.addEventListener(eventType, routes.listener);
+        }
+        return routes;
+    }
+
+    private static Action add(Map<String, Set<Route>> routesByKey, String key, BiConsumer<Event, Element> handler) {
+        Set<Route> keyRoutes = routesByKey.get(key);
+        if (keyRoutes == null) {
+            keyRoutes = new LinkedHashSet<>();
+            routesByKey.put(key, keyRoutes);
+        }
+
+        Route route = new Route(handler);
+        keyRoutes.add(route);
+
+        Set<Route> addedTo = keyRoutes;
+        return () -> {
+            route.removed = true;
+            addedTo.remove(route);
+            if (addedTo.isEmpty())
+                routesByKey.remove(key, addedTo);
+        };
+    }
+
+    private void dispatch(EventTypeRoutes routes, Event event) {
+        NativeEvent nativeEvent = Js.uncheckedCast(event);
+        NativeElement element = nativeEvent.target;
+        // text nodes are not matched, their parent element is
+        if (element != null && element.nodeType != ELEMENT_NODE)
+            element = element.parentElement;
+
+        NativeElement rootElement = Js.uncheckedCast(root);
+        while (element != null) {
+            for (Map.Entry<String, Map<String, Set<Route>>> entry : routes.byAttribute.entrySet()) {
+                String value = element.getAttribute(entry.getKey());
+                if (value != null)
+                    call(entry.getValue().get(value), event, element);
+            }
+
+            for (Map.Entry<String, Set<Route>> entry : routes.bySelector.entrySet()) {
+                if (element.matches(entry.getKey()))
+                    call(entry.getValue(), event, element);
+            }
+
+            if (element == rootElement || nativeEvent.cancelBubble)
+                break;
+            element = element.parentElement;
+        }
+    }
+
+    private static void call(Set<Route> routes, Event event, NativeElement element) {
+        if (routes == null)
+            return;
+
+        // handlers can add or remove handlers while they are called
+        for (Route route : new ArrayList<>(routes)) {
+            if (!route.removed)
+                route.handler.accept(event, Js.uncheckedCast(element));
+        }
+    }
+
+    private static final class EventTypeRoutes {
+        EventListener listener;
+        // insertion ordered, the handlers of an element are called in their adding order
+        final Map<String, Set<Route>> bySelector = new LinkedHashMap<>();
+        // attribute name -> attribute value -> routes
+        final Map<String, Map<String, Set<Route>>> byAttribute = new LinkedHashMap<>();
+    }
+
+    private static final class Route {
+        final BiConsumer<Event, Element> handler;
+        boolean removed;
+
+        Route(BiConsumer<Event, Element> handler) {
+            this.handler = handler;
+        }
+    }
+
+    @JsType(isNative = true, namespace = JsPackage.GLOBAL, name = "Event")
+    private static class NativeEvent {
+        public NativeElement target;
+        public boolean cancelBubble;
+    }
+
+    /**
+      * Element, or text node as an event target
+     */
+    @JsType(isNative = true, namespace = JsPackage.GLOBAL, name = "Element")
+    private static class NativeElement {
+        public int nodeType;
+        public NativeElement parentElement;
+
+        public native String getAttribute(String name);
+
+        public native boolean matches(String selector);
+    }
+}
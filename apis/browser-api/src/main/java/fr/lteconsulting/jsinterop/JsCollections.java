@@ -0,0 +1,405 @@
+package fr.lteconsulting.jsinterop;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+import fr.lteconsulting.jsinterop.browser.Array;
+import fr.lteconsulting.jsinterop.browser.IterableIterator;
+import fr.lteconsulting.jsinterop.browser.IteratorResult;
+import fr.lteconsulting.prebuilt.Function;
+import jsinterop.annotations.JsIgnore;
+import jsinterop.annotations.JsPackage;
+import jsinterop.annotations.JsProperty;
+import jsinterop.annotations.JsType;
+import jsinterop.base.Js;
+
+/**
+  * Live views of the native Array, Map and Set as java.util collections, and
+  * views of Java iterables as javascript iterables.
+  *
+  * Nothing is copied : the views read and write the underlying object, so data
+  * can cross the boundary between javascript and Java domain code for free.
+  *
+  * Native Map and Set compare their elements with javascript equality (identity
+  * for objects), not with equals() and hashCode().
+  *
+  * The javascript properties (length, size, done...) are read through private
+  * native views, since the generated classes have them as fields or accessors
+  * depending on the accessorStyle of the generation.
+ */
+public final class JsCollections {
+    /**
+      * Maximum number of elements given at once to push and splice, whose
+      * arguments are passed on the stack
+     */
+    private static final int MAX_ARGUMENTS = 4096;
+
+    private JsCollections() {
+    }
+
+    public static <T> java.util.List<T> asList(Array<T> array) {
+        return new ArrayListView<>(array);
+    }
+
+    public static <K, V> java.util.Map<K, V> asMap(fr.lteconsulting.jsinterop.browser.Map<K, V> map) {
+        return new MapView<>(map);
+    }
+
+    public static <T> java.util.Set<T> asSet(fr.lteconsulting.jsinterop.browser.Set<T> set) {
+        return new SetView<>(set);
+    }
+
+    /**
+      * Returns a javascript iterable (usable with for..of, Array.from, the Map
+      * and Set constructors...) which iterates on the Java iterable.
+     */
+    public static <T> fr.lteconsulting.jsinterop.browser.Iterable<T> asJsIterable(java.lang.Iterable<T> iterable) {
+        NativeObject result = new NativeObject();
+        Function<JavaIteratorAdapter<T>> iteratorFactory = () -> new JavaIteratorAdapter<>(iterable.iterator());
+        Js.asPropertyMap(result).set(Js.uncheckedCast(getIteratorSymbol()), iteratorFactory);
+        return Js.uncheckedCast(result);
+    }
+
+    @JsProperty(namespace = "Symbol", name = "iterator")
+    private static native Object getIteratorSymbol();
+
+    /**
+      * Array with variadic methods, calling them with a Java array compiles to
+      * 'push.apply' and 'splice.apply'
+     */
+    @JsType(isNative = true, namespace = JsPackage.GLOBAL, name = "Array")
+    private static class NativeArray {
+        public int length;
+
+        public native int push(Object... items);
+
+        public native NativeArray splice(int start, int deleteCount, Object... items);
+    }
+
+    @JsType(isNative = true, namespace = JsPackage.GLOBAL, name = "Object")
+    private static class NativeObject {
+    }
+
+    /**
+      * Map or Set, for their size
+     */
+    @JsType(isNative = true, namespace = JsPackage.GLOBAL, name = "Object")
+    private static class NativeSized {
+        public int size;
+    }
+
+    @JsType(isNative = true, namespace = JsPackage.GLOBAL, name = "Object")
+    private static class NativeIteratorResult<T> {
+        public boolean done;
+        public T value;
+    }
+
+    private static final class ArrayListView<T> extends AbstractList<T> implements RandomAccess {
+        private final Array<T> array;
+
+        ArrayListView(Array<T> array) {
+            this.array = array;
+        }
+
+        private NativeArray nativeArray() {
+            return Js.uncheckedCast(array);
+        }
+
+        @Override
+        public int size() {
+            return nativeArray().length;
+        }
+
+        @Override
+        public T get(int index) {
+            checkIndex(index, size());
+            return array.getByIndex(index);
+        }
+
+        @Override
+        public T set(int index, T element) {
+            T old = get(index);
+            array.setByIndex(index, element);
+            return old;
+        }
+
+        @Override
+        public boolean add(T element) {
+            nativeArray().push(element);
+            modCount++;
+            return true;
+        }
+
+        @Override
+        public void add(int index, T element) {
+            checkIndex(index, size() + 1);
+            nativeArray().splice(index, 0, element);
+            modCount++;
+        }
+
+        @Override
+        public T remove(int index) {
+            T old = get(index);
+            nativeArray().splice(index, 1);
+            modCount++;
+            return old;
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends T> collection) {
+            if (collection.isEmpty())
+                return false;
+            Object[] elements = collection.toArray();
+            if (elements.length <= MAX_ARGUMENTS)
+                nativeArray().push(elements);
+            else
+                for (int start = 0; start < elements.length; start += MAX_ARGUMENTS)
+                    nativeArray().push(slice(elements, start));
+            modCount++;
+            return true;
+        }
+
+        @Override
+        public boolean addAll(int index, Collection<? extends T> collection) {
+            checkIndex(index, size() + 1);
+            if (collection.isEmpty())
+                return false;
+            Object[] elements = collection.toArray();
+            if (elements.length <= MAX_ARGUMENTS)
+                nativeArray().splice(index, 0, elements);
+            else
+                for (int start = 0; start < elements.length; start += MAX_ARGUMENTS)
+                    nativeArray().splice(index + start, 0, slice(elements, start));
+            modCount++;
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            nativeArray().length = 0;
+            modCount++;
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            nativeArray().splice(fromIndex, toIndex - fromIndex);
+            modCount++;
+        }
+
+        private static Object[] slice(Object[] elements, int start) {
+            return Arrays.copyOfRange(elements, start, Math.min(start + MAX_ARGUMENTS, elements.length));
+        }
+
+        private static void checkIndex(int index, int size) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    private static final class MapView<K, V> extends AbstractMap<K, V> {
+        private final fr.lteconsulting.jsinterop.browser.Map<K, V> map;
+
+        MapView(fr.lteconsulting.jsinterop.browser.Map<K, V> map) {
+            this.map = map;
+        }
+
+        @Override
+        public int size() {
+            return Js.<NativeSized> uncheckedCast(map).size;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return map.has(Js.uncheckedCast(key));
+        }
+
+        @Override
+        public V get(Object key) {
+            return map.get(Js.uncheckedCast(key));
+        }
+
+        @Override
+        public V put(K key, V value) {
+            V old = map.get(key);
+            map.set(key, value);
+            return old;
+        }
+
+        @Override
+        public V remove(Object key) {
+            K k = Js.uncheckedCast(key);
+            V old = map.get(k);
+            map.delete(k);
+            return old;
+        }
+
+        @Override
+        public void clear() {
+            map.clear();
+        }
+
+        @Override
+        public java.util.Set<Entry<K, V>> entrySet() {
+            return new AbstractSet<Entry<K, V>>() {
+                @Override
+                public int size() {
+                    return MapView.this.size();
+                }
+
+                @Override
+                public void clear() {
+                    map.clear();
+                }
+
+                @Override
+                public java.util.Iterator<Entry<K, V>> iterator() {
+                    return new NativeIteratorAdapter<Entry<K, V>, Tuple<K, V>>(map.entries()) {
+                        @Override
+                        protected Entry<K, V> convert(Tuple<K, V> entry) {
+                            return new EntryView(entry.getNb1(), entry.getNb2());
+                        }
+
+                        @Override
+                        protected void remove(Entry<K, V> entry) {
+                            map.delete(entry.getKey());
+                        }
+                    };
+                }
+            };
+        }
+
+        private final class EntryView extends SimpleEntry<K, V> {
+            private static final long serialVersionUID = 1L;
+
+            EntryView(K key, V value) {
+                super(key, value);
+            }
+
+            @Override
+            public V setValue(V value) {
+                map.set(getKey(), value);
+                return super.setValue(value);
+            }
+        }
+    }
+
+    private static final class SetView<T> extends AbstractSet<T> {
+        private final fr.lteconsulting.jsinterop.browser.Set<T> set;
+
+        SetView(fr.lteconsulting.jsinterop.browser.Set<T> set) {
+            this.set = set;
+        }
+
+        @Override
+        public int size() {
+            return Js.<NativeSized> uncheckedCast(set).size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return set.has(Js.uncheckedCast(o));
+        }
+
+        @Override
+        public boolean add(T element) {
+            if (set.has(element))
+                return false;
+            set.add(element);
+            return true;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return set.delete(Js.uncheckedCast(o));
+        }
+
+        @Override
+        public void clear() {
+            set.clear();
+        }
+
+        @Override
+        public java.util.Iterator<T> iterator() {
+            return new NativeIteratorAdapter<T, T>(set.values()) {
+                @Override
+                protected T convert(T value) {
+                    return value;
+                }
+
+                @Override
+                protected void remove(T value) {
+                    set.delete(value);
+                }
+            };
+        }
+    }
+
+    /**
+      * Java iterator reading a javascript iterator. Javascript Map and Set
+      * iterators support the removal of the current element.
+     */
+    private static abstract class NativeIteratorAdapter<T, N> implements java.util.Iterator<T> {
+        private final IterableIterator<N> iterator;
+        private NativeIteratorResult<N> nextResult;
+        private T current;
+        private boolean canRemove;
+
+        NativeIteratorAdapter(IterableIterator<N> iterator) {
+            this.iterator = iterator;
+            this.nextResult = Js.uncheckedCast(iterator.next());
+        }
+
+        protected abstract T convert(N value);
+
+        protected abstract void remove(T element);
+
+        @Override
+        public boolean hasNext() {
+            return !nextResult.done;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            current = convert(nextResult.value);
+            canRemove = true;
+            nextResult = Js.uncheckedCast(iterator.next());
+            return current;
+        }
+
+        @Override
+        public void remove() {
+            if (!canRemove)
+                throw new IllegalStateException();
+            remove(current);
+            canRemove = false;
+        }
+    }
+
+    /**
+      * Implements the javascript iterator protocol over a Java iterator
+     */
+    @JsType
+    static final class JavaIteratorAdapter<T> {
+        private final java.util.Iterator<T> iterator;
+
+        @JsIgnore
+        JavaIteratorAdapter(java.util.Iterator<T> iterator) {
+            this.iterator = iterator;
+        }
+
+        public IteratorResult<T> next() {
+            NativeIteratorResult<T> result = Js.uncheckedCast(new NativeObject());
+            result.done = !iterator.hasNext();
+            if (!result.done)
+                result.value = iterator.next();
+            return Js.uncheckedCast(result);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package fr.lteconsulting.jsinterop;
+
+import fr.lteconsulting.jsinterop.browser.ArrayLike;
+import fr.lteconsulting.jsinterop.browser.Float32Array;
+import fr.lteconsulting.jsinterop.browser.Float64Array;
+import fr.lteconsulting.jsinterop.browser.Int16Array;
+import fr.lteconsulting.jsinterop.browser.Int32Array;
+import fr.lteconsulting.jsinterop.browser.Int8Array;
+import fr.lteconsulting.jsinterop.browser.Uint16Array;
+import fr.lteconsulting.jsinterop.browser.Uint32Array;
+import fr.lteconsulting.jsinterop.browser.Uint8Array;
+import jsinterop.base.Js;
+
+/**
+  * Conversions from Java primitive arrays to javascript typed arrays.
+  *
+  * Java arrays being javascript arrays once compiled, each conversion is a
+  * single native call (typed array constructor or 'set') instead of a Java
+  * loop over the elements.
+  *
+  * The methods taking a destination write into it when it has the same length
+  * as the source, so that a caller keeping its typed arrays (one per vertex
+  * buffer for instance) does not allocate at each frame. Otherwise (or when
+  * the destination is null), a new typed array is returned.
+ */
+public final class TypedArrays {
+    private TypedArrays() {
+    }
+
+    public static Float32Array toFloat32Array(float[] values) {
+        return new Float32Array(asArrayLike(values));
+    }
+
+    public static Float32Array toFloat32Array(float[] values, Float32Array destination) {
+        if (destination == null || Js.asArrayLike(destination).getLength() != values.length)
+            return toFloat32Array(values);
+        destination.set(asArrayLike(values));
+        return destination;
+    }
+
+    public static Float32Array toFloat32Array(double[] values) {
+        return new Float32Array(asArrayLike(values));
+    }
+
+    public static Float32Array toFloat32Array(double[] values, Float32Array destination) {
+        if (destination == null || Js.asArrayLike(destination).getLength() != values.length)
+            return toFloat32Array(values);
+        destination.set(asArrayLike(values));
+        return destination;
+    }
+
+    public static Float64Array toFloat64Array(double[] values) {
+        return new Float64Array(asArrayLike(values));
+    }
+
+    public static Float64Array toFloat64Array(double[] values, Float64Array destination) {
+        if (destination == null || Js.asArrayLike(destination).getLength() != values.length)
+            return toFloat64Array(values);
+        destination.set(asArrayLike(values));
+        return destination;
+    }
+
+    public static Int8Array toInt8Array(byte[] values) {
+        return new Int8Array(asArrayLike(values));
+    }
+
+    public static Int8Array toInt8Array(byte[] values, Int8Array destination) {
+        if (destination == null || Js.asArrayLike(destination).getLength() != values.length)
+            return toInt8Array(values);
+        destination.set(asArrayLike(values));
+        return destination;
+    }
+
+    /**
+      * Negative bytes are wrapped (-1 becomes 255), as Java code usually expects
+      * when handling binary data.
+     */
+    public static Uint8Array toUint8Array(byte[] values) {
+        return new Uint8Array(asArrayLike(values));
+    }
+
+    public static Uint8Array toUint8Array(byte[] values, Uint8Array destination) {
+        if (destination == null || Js.asArrayLike(destination).getLength() != values.length)
+            return toUint8Array(values);
+        destination.set(asArrayLike(values));
+        return destination;
+    }
+
+    public static Int16Array toInt16Array(short[] values) {
+        return new Int16Array(asArrayLike(values));
+    }
+
+    public static Int16Array toInt16Array(short[] values, Int16Array destination) {
+        if (destination == null || Js.asArrayLike(destination).getLength() != values.length)
+            return toInt16Array(values);
+        destination.set(asArrayLike(values));
+        return destination;
+    }
+
+    /**
+      * Typically used for WebGL element indices.
+     */
+    public static Uint16Array toUint16Array(int[] values) {
+        return new Uint16Array(asArrayLike(values));
+    }
+
+    public static Uint16Array toUint16Array(int[] values, Uint16Array destination) {
+        if (destination == null || Js.asArrayLike(destination).getLength() != values.length)
+            return toUint16Array(values);
+        destination.set(asArrayLike(values));
+        return destination;
+    }
+
+    public static Int32Array toInt32Array(int[] values) {
+        return new Int32Array(asArrayLike(values));
+    }
+
+    public static Int32Array toInt32Array(int[] values, Int32Array destination) {
+        if (destination == null || Js.asArrayLike(destination).getLength() != values.length)
+            return toInt32Array(values);
+        destination.set(asArrayLike(values));
+        return destination;
+    }
+
+    /**
+      * Negative ints are wrapped, so that the unsigned values produced by Java
+      * bit manipulations are preserved.
+     */
+    public static Uint32Array toUint32Array(int[] values) {
+        return new Uint32Array(asArrayLike(values));
+    }
+
+    public static Uint32Array toUint32Array(int[] values, Uint32Array destination) {
+        if (destination == null || Js.asArrayLike(destination).getLength() != values.length)
+            return toUint32Array(values);
+        destination.set(asArrayLike(values));
+        return destination;
+    }
+
+    private static ArrayLike<Number> asArrayLike(Object javaArray) {
+        return Js.uncheckedCast(javaArray);
+    }
+}
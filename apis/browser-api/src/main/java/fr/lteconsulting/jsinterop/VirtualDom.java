@@ -0,0 +1,420 @@
+package fr.lteconsulting.jsinterop;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import fr.lteconsulting.jsinterop.browser.Document;
+import fr.lteconsulting.jsinterop.browser.Node;
+import jsinterop.annotations.JsPackage;
+import jsinterop.annotations.JsType;
+import jsinterop.base.Js;
+
+/**
+  * Keeps the content of a container element in sync with a tree of virtual nodes.
+  * Each render diffs the new tree against the previous one and applies the minimal
+  * DOM operations (setAttribute, text update, insertBefore, removeChild), so that
+  * the unchanged elements keep their state (focus, selection, scroll...).
+  *
+  * <pre>
+  * VirtualDom dom = new VirtualDom(document, container);
+  * VNode list = dom.element("ul");
+  * for (Item item : items)
+  *     list.child(dom.element("li").key(item.id).attribute("data-id", item.id).child(dom.text(item.label)));
+  * dom.render(list);
+  * </pre>
+  *
+  * Children are matched by key, or by position among the children without key
+  * when they have none (and the same tag) : the children of lists which can be
+  * reordered, filtered or inserted into need keys.
+  *
+  * Children lists are compared from both ends first, which handles the common
+  * changes (edition, append, removal at the ends) without building a key map.
+  * The remaining children which kept their relative order (the longest increasing
+  * subsequence of their old positions) stay in place, only the others are moved.
+  *
+  * Virtual nodes are pooled : the nodes of the previous tree are reused by the next
+  * calls to element() and text(), so a tree must not be kept after being rendered.
+  * A subtree which did not change can still be given again as is (the same instance)
+  * to the next render, at the same place or with the same key : it is then skipped.
+  *
+  * Events are best handled with an EventDelegation on the container, routing by
+  * the attributes of the virtual nodes.
+ */
+public final class VirtualDom {
+    private static final int MAX_POOL_SIZE = 16384;
+
+    private final NativeDocument document;
+    private final NativeNode container;
+    private final ArrayDeque<VNode> pool = new ArrayDeque<>();
+    // reused by the children diffs which need a key lookup, key -> index in the old children
+    private final Map<String, Integer> oldIndicesByKey = new HashMap<>();
+    // reused by the children diffs, indices of the old children without key
+    private final List<Integer> oldUnkeyedIndices = new ArrayList<>();
+    private VNode current;
+    private int generation;
+
+    public VirtualDom(Document document, Node container) {
+        this.document = Js.uncheckedCast(document);
+        this.container = Js.uncheckedCast(container);
+    }
+
+    public VNode element(String tagName) {
+        VNode node = obtain();
+        node.tagName = tagName;
+        return node;
+    }
+
+    public VNode text(String text) {
+        VNode node = obtain();
+        node.text = text;
+        return node;
+    }
+
+    /**
+      * Updates the container's content to match the given tree
+     */
+    public void render(VNode root) {
+        generation++;
+
+        if (current == null)
+            container.appendChild(create(root));
+        else if (isSame(current, root))
+            patch(current, root);
+        else
+            container.replaceChild(create(root), current.dom);
+
+        VNode previous = current;
+        current = root;
+        if (previous != null)
+            release(previous);
+    }
+
+    /**
+      * Removes the rendered tree from the container
+     */
+    public void clear() {
+        if (current == null)
+            return;
+
+        container.removeChild(current.dom);
+        generation++;
+        release(current);
+        current = null;
+    }
+
+    private VNode obtain() {
+        VNode node = pool.poll();
+        return node != null ? node : new VNode();
+    }
+
+    /**
+      * Gives the nodes of a previous tree back to the pool, except the subtrees of the new tree
+     */
+    private void release(VNode node) {
+        if (node.generation == generation)
+            return;
+
+        for (int i = 0; i < node.children.size(); i++)
+            release(node.children.get(i));
+
+        node.reset();
+        if (pool.size() < MAX_POOL_SIZE)
+            pool.push(node);
+    }
+
+    private static boolean isSame(VNode old, VNode node) {
+        return Objects.equals(old.tagName, node.tagName) && Objects.equals(old.key, node.key);
+    }
+
+    /** an old node is reused when its DOM node has been taken by a new node, or when it is in the new tree itself */
+    private boolean isReused(VNode old) {
+        return old.dom == null || old.generation == generation;
+    }
+
+    private NativeNode create(VNode node) {
+        node.generation = generation;
+
+        // a subtree of the previous tree given again keeps its DOM node, wherever it was
+        if (node.dom != null)
+            return node.dom;
+
+        if (node.tagName == null) {
+            node.dom = document.createTextNode(node.text);
+            return node.dom;
+        }
+
+        NativeElement element = document.createElement(node.tagName);
+        for (int i = 0; i < node.attributes.size(); i += 2)
+            element.setAttribute(node.attributes.get(i), node.attributes.get(i + 1));
+        for (int i = 0; i < node.children.size(); i++)
+            element.appendChild(create(node.children.get(i)));
+
+        node.dom = element;
+        return element;
+    }
+
+    /**
+      * Makes the DOM node of the old node match the new node, which takes it
+     */
+    private void patch(VNode old, VNode node) {
+        if (old == node) {
+            node.generation = generation;
+            return;
+        }
+
+        node.generation = generation;
+        node.dom = old.dom;
+        old.dom = null;
+
+        if (node.tagName == null) {
+            if (!Objects.equals(old.text, node.text))
+                node.dom.nodeValue = node.text;
+            return;
+        }
+
+        patchAttributes(Js.uncheckedCast(node.dom), old.attributes, node.attributes);
+        patchChildren(node.dom, old.children, node.children);
+    }
+
+    private static void patchAttributes(NativeElement element, List<String> oldAttributes, List<String> attributes) {
+        // attribute lists are short, a linear search is cheaper than a map
+        for (int i = 0; i < attributes.size(); i += 2) {
+            String name = attributes.get(i);
+            String value = attributes.get(i + 1);
+            int oldIndex = indexOfAttribute(oldAttributes, name);
+            if (oldIndex < 0 || !Objects.equals(oldAttributes.get(oldIndex + 1), value))
+                element.setAttribute(name, value);
+        }
+
+        for (int i = 0; i < oldAttributes.size(); i += 2) {
+            String name = oldAttributes.get(i);
+            if (indexOfAttribute(attributes, name) < 0)
+                element.removeAttribute(name);
+        }
+    }
+
+    private static int indexOfAttribute(List<String> attributes, String name) {
+        for (int i = 0; i < attributes.size(); i += 2) {
+            if (attributes.get(i).equals(name))
+                return i;
+        }
+        return -1;
+    }
+
+    private void patchChildren(NativeNode parent, List<VNode> oldChildren, List<VNode> children) {
+        int oldStart = 0;
+        int oldEnd = oldChildren.size() - 1;
+        int start = 0;
+        int end = children.size() - 1;
+
+        // common prefix and suffix
+        while (oldStart <= oldEnd && start <= end && isSame(oldChildren.get(oldStart), children.get(start)))
+            patch(oldChildren.get(oldStart++), children.get(start++));
+        while (oldStart <= oldEnd && start <= end && isSame(oldChildren.get(oldEnd), children.get(end)))
+            patch(oldChildren.get(oldEnd--), children.get(end--));
+
+        NativeNode reference = end + 1 < children.size() ? children.get(end + 1).dom : null;
+
+        if (oldStart > oldEnd) {
+            // only insertions
+            for (int i = start; i <= end; i++)
+                parent.insertBefore(create(children.get(i)), reference);
+            return;
+        }
+
+        if (start > end) {
+            // only removals
+            for (int i = oldStart; i <= oldEnd; i++) {
+                VNode old = oldChildren.get(i);
+                if (!isReused(old))
+                    parent.removeChild(old.dom);
+            }
+            return;
+        }
+
+        // matches the remaining children, by key or by position among the ones without key, before
+        // patching them since patching reuses the lookup structures
+        for (int i = oldStart; i <= oldEnd; i++) {
+            VNode old = oldChildren.get(i);
+            if (old.key != null)
+                oldIndicesByKey.put(old.key, i);
+            else
+                oldUnkeyedIndices.add(i);
+        }
+        // old index of each remaining child, -1 for the ones to create
+        int[] oldIndices = new int[end - start + 1];
+        int unkeyedPosition = 0;
+        for (int i = start; i <= end; i++) {
+            VNode node = children.get(i);
+            Integer oldIndex = node.key != null ? oldIndicesByKey.remove(node.key)
+                    : unkeyedPosition < oldUnkeyedIndices.size() ? oldUnkeyedIndices.get(unkeyedPosition++) : null;
+            if (oldIndex != null && Objects.equals(oldChildren.get(oldIndex).tagName, node.tagName)) {
+                node.matched = oldChildren.get(oldIndex);
+                oldIndices[i - start] = oldIndex;
+            }
+            else {
+                oldIndices[i - start] = -1;
+            }
+        }
+        oldIndicesByKey.clear();
+        oldUnkeyedIndices.clear();
+
+        for (int i = start; i <= end; i++) {
+            VNode node = children.get(i);
+            // the matched node can have been given again as is, earlier in the new children
+            if (node.matched != null && !isReused(node.matched)) {
+                patch(node.matched, node);
+            }
+            else {
+                node.matched = null;
+                oldIndices[i - start] = -1;
+                create(node);
+            }
+        }
+
+        for (int i = oldStart; i <= oldEnd; i++) {
+            VNode old = oldChildren.get(i);
+            if (!isReused(old))
+                parent.removeChild(old.dom);
+        }
+
+        // places the children from the last one, each one before its next sibling. The matched children
+        // whose old positions increase are already in order, the others are moved around them.
+        int[] stable = longestIncreasingSubsequence(oldIndices);
+        int stableIndex = stable.length - 1;
+        for (int i = end; i >= start; i--) {
+            VNode node = children.get(i);
+            if (stableIndex >= 0 && stable[stableIndex] == i - start)
+                stableIndex--;
+            else
+                parent.insertBefore(node.dom, reference);
+            node.matched = null;
+            reference = node.dom;
+        }
+    }
+
+    /**
+      * Positions (in increasing order) of a longest strictly increasing subsequence of
+      * the values, the negative values being ignored
+     */
+    private static int[] longestIncreasingSubsequence(int[] values) {
+        // tails[k] : position of the smallest last value of the increasing subsequences of length k + 1
+        int[] tails = new int[values.length];
+        int[] previous = new int[values.length];
+        int length = 0;
+
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] < 0)
+                continue;
+
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[tails[middle]] < values[i])
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length)
+                length++;
+        }
+
+        int[] positions = new int[length];
+        for (int k = length - 1, i = length > 0 ? tails[length - 1] : -1; k >= 0; k--, i = previous[i])
+            positions[k] = i;
+        return positions;
+    }
+
+    /**
+      * A virtual element or text node. Built with the element() and text() methods of a VirtualDom.
+     */
+    public static final class VNode {
+        // null for a text node
+        private String tagName;
+        private String text;
+        private String key;
+        // name, value, name, value...
+        private final List<String> attributes = new ArrayList<>();
+        private final List<VNode> children = new ArrayList<>();
+
+        private NativeNode dom;
+        // render in which the node has been created or patched
+        private int generation;
+        // old node matched by key or position during a children diff
+        private VNode matched;
+
+        private VNode() {
+        }
+
+        /**
+          * Identifies the node among its siblings, across renders
+         */
+        public VNode key(String key) {
+            this.key = key;
+            return this;
+        }
+
+        public VNode attribute(String name, String value) {
+            attributes.add(name);
+            attributes.add(value);
+            return this;
+        }
+
+        public VNode child(VNode child) {
+            children.add(child);
+            return this;
+        }
+
+        /**
+          * The DOM node of the rendered virtual node
+         */
+        public Node getNode() {
+            return Js.uncheckedCast(dom);
+        }
+
+        private void reset() {
+            tagName = null;
+            text = null;
+            key = null;
+            attributes.clear();
+            children.clear();
+            dom = null;
+            matched = null;
+        }
+    }
+
+    @JsType(isNative = true, namespace = JsPackage.GLOBAL, name = "Document")
+    private static class NativeDocument {
+        public native NativeElement createElement(String tagName);
+
+        public native NativeNode createTextNode(String data);
+    }
+
+    @JsType(isNative = true, namespace = JsPackage.GLOBAL, name = "Node")
+    private static class NativeNode {
+        public String nodeValue;
+
+        public native NativeNode appendChild(NativeNode child);
+
+        public native NativeNode insertBefore(NativeNode child, NativeNode reference);
+
+        public native NativeNode removeChild(NativeNode child);
+
+        public native NativeNode replaceChild(NativeNode child, NativeNode oldChild);
+    }
+
+    @JsType(isNative = true, namespace = JsPackage.GLOBAL, name = "Element")
+    private static class NativeElement extends NativeNode {
+        public native void setAttribute(String name, String value);
+
+        public native void removeAttribute(String name);
+    }
+}
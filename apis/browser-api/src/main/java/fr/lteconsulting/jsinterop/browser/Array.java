@@ -11,6 +11,9 @@ import jsinterop.annotations.*;
 import jsinterop.base.Js;
 
 import java.util.Iterator;
+import java.util.function.IntConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
 
 /**
  * base type: Array
@@ -49,11 +52,12 @@ public class Array<T> {
     @JsOverlay
     public final java.lang.Iterable<T> iterate() {
         return () -> new Iterator<T>() {
+            final int size = length;
             int index = 0;
 
             @Override
             public boolean hasNext() {
-                return index < length;
+                return index < size;
             }
 
             @Override
@@ -70,6 +74,57 @@ public class Array<T> {
         };
     }
 
+    /**
+     * Calls the consumer with each element and its index. Compiles to a plain javascript loop,
+     * prefer it to iterate() in hot code.
+     */
+    @JsOverlay
+    public final void forEachIndexed(ObjIntConsumer<T> consumer) {
+        forEachIndexed(0, length, consumer);
+    }
+
+    /**
+     * Calls the consumer with each element and its index, for indices in [start, end[
+     */
+    @JsOverlay
+    public final void forEachIndexed(int start, int end, ObjIntConsumer<T> consumer) {
+        for (int i = start; i < end; i++)
+            consumer.accept(getByIndex(i), i);
+    }
+
+    /**
+     * Calls the consumer with each index of the array, in increasing order
+     */
+    @JsOverlay
+    public final void forEachIndex(IntConsumer consumer) {
+        for (int i = 0, size = length; i < size; i++)
+            consumer.accept(i);
+    }
+
+    /**
+     * Returns true as soon as an element matches the predicate
+     */
+    @JsOverlay
+    public final boolean anyMatch(Predicate<T> predicate) {
+        for (int i = 0, size = length; i < size; i++) {
+            if (predicate.test(getByIndex(i)))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns false as soon as an element does not match the predicate
+     */
+    @JsOverlay
+    public final boolean allMatch(Predicate<T> predicate) {
+        for (int i = 0, size = length; i < size; i++) {
+            if (!predicate.test(getByIndex(i)))
+                return false;
+        }
+        return true;
+    }
+
     @JsOverlay
     public final void setByIndex(int index, T value) {
         Js.asArrayLike(this).setAt(index, value);
@@ -0,0 +1,45 @@
+// Listener options of addEventListener and removeEventListener, missing from lib.es6.d.ts.
+// The declarations are merged into the ones of lib.es6.d.ts, which is kept as distributed.
+// EventTarget only gets an additional overload of each method : the subtypes inherit it
+// instead of re-declaring a union of the useCapture boolean and the options.
+
+interface EventListenerOptions {
+    capture?: boolean;
+}
+
+interface AddEventListenerOptions extends EventListenerOptions {
+    once?: boolean;
+    passive?: boolean;
+    signal?: AbortSignal;
+}
+
+interface EventTarget {
+    addEventListener(type: string, listener: EventListenerOrEventListenerObject, options: AddEventListenerOptions): void;
+    removeEventListener(type: string, listener: EventListenerOrEventListenerObject, options: EventListenerOptions): void;
+}
+
+interface AbortController {
+    readonly signal: AbortSignal;
+    abort(): void;
+}
+
+declare var AbortController: {
+    prototype: AbortController;
+    new(): AbortController;
+}
+
+interface AbortSignalEventMap {
+    "abort": Event;
+}
+
+interface AbortSignal extends EventTarget {
+    readonly aborted: boolean;
+    onabort: (this: AbortSignal, ev: Event) => any;
+    addEventListener<K extends keyof AbortSignalEventMap>(type: K, listener: (this: AbortSignal, ev: AbortSignalEventMap[K]) => any, useCapture?: boolean): void;
+    addEventListener(type: string, listener: EventListenerOrEventListenerObject, useCapture?: boolean): void;
+}
+
+declare var AbortSignal: {
+    prototype: AbortSignal;
+    new(): AbortSignal;
+}
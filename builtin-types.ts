@@ -6,6 +6,8 @@ export const BUILTIN_TYPE_STRING = new PreJavaTypeBuiltinJavaType('java.lang', '
 export const BUILTIN_TYPE_NUMBER = new PreJavaTypeBuiltinJavaType('java.lang', 'Number')
 export const BUILTIN_TYPE_INT = new PreJavaTypeBuiltinJavaType('java.lang', 'int')
 export const BUILTIN_TYPE_BOOLEAN = new PreJavaTypeBuiltinJavaType('java.lang', 'Boolean')
+export const BUILTIN_TYPE_PRIMITIVE_DOUBLE = new PreJavaTypeBuiltinJavaType('java.lang', 'double')
+export const BUILTIN_TYPE_PRIMITIVE_BOOLEAN = new PreJavaTypeBuiltinJavaType('java.lang', 'boolean')
 export const BUILTIN_TYPE_UNIT = new PreJavaTypeBuiltinJavaType(null, 'void')
 export const BUILTIN_TYPE_VOID = new PreJavaTypeBuiltinJavaType('java.lang', 'Void')
 
@@ -1,9 +1,17 @@
 import * as ts from "typescript"
 import * as tools from "./tools"
+import * as tsTools from "./ts-tools"
+import * as fs from "fs"
 import * as path from "path"
 import * as Transformers from './transformers'
+import * as Manifest from './manifest'
+import { ModuleDefinition } from './modules'
+import { Profiler } from './profiler'
+import { ModelCache } from './model-cache'
+import { TypescriptToJavaTypemap } from './type-map'
 import { GatherPhase } from "./processor.gather-phase"
-import { ExportPhase } from './processor.export-phase'
+import { PreJavaType } from './prejavatypes/PreJavaType'
+import { ExportPhase, AccessorStyle } from './processor.export-phase'
 
 export interface Configuration {
     sourceRootDir: string
@@ -15,14 +23,202 @@ export interface Configuration {
     renaming: { [key: string]: { [key: string]: string } }
     adding: { [key: string]: { [key: string]: string } }
     removing: { [key: string]: { [key: string]: string[] } }
+    primitiveVariants: { [key: string]: { [key: string]: string } }
+    constantValues: { [key: string]: string }
+    overloadExpansion: { [key: string]: Transformers.OverloadExpansionStrategy }
+    overloadExpansionReport: string
+    accessorStyle: { [key: string]: AccessorStyle }
+    modules: ModuleDefinition[]
+    profilingReport: string
+    modelCache: string
+    skipEmit: boolean
+}
+
+/**
+ * Generates the configurations with one shared typescript program, so that the typings
+ * common to several configurations (lib.es6.d.ts for instance) are parsed and checked once.
+ *
+ * A typings file whose content is already part of a previous configuration is not processed
+ * again, and the types already generated by a previous configuration are referenced rather
+ * than generated again. The order of the configurations is thus a layering, as for modules.
+ */
+export function runBatch(engines: Engine[]): Promise<void> {
+    let processedFiles = new Map<string, string>()
+    let previousHashes = { typings: '', inputs: '' }
+    engines.forEach(engine => previousHashes = engine.prepare(processedFiles, previousHashes))
+
+    let files = Array.from(processedFiles.values())
+    let sourceRootDirs = engines.map(engine => engine.getConfiguration().sourceRootDir)
+    let enginesNeedingProgram = engines.filter(engine => engine.needsProgram())
+    let program = enginesNeedingProgram.length ? enginesNeedingProgram[0].createProgram(files, engines.length > 1 ? sourceRootDirs : null) : null
+
+    // fully qualified names of the types generated by the previous configurations
+    let providedTypes = new Set<string>()
+    return engines.reduce((previous, engine) => previous.then(() => engine.generate(program, files, providedTypes)), Promise.resolve())
 }
 
 export class Engine {
-    constructor(private configuration: Configuration) {
+    private profiler = new Profiler()
+
+    // files of this configuration which are not already part of a previous one
+    private ownedFiles: string[]
+    private typingsHash: string
+    private inputsHash: string
+    private previousManifest: Manifest.GenerationManifest
+    private upToDate = false
+    private cachedTypes: PreJavaType[] = null
+
+    /**
+     * When a directory is given, the paths of the configuration are relative to it,
+     * otherwise they are relative to the current directory
+     */
+    constructor(private configuration: Configuration, private directory: string = null) {
+        if (directory)
+            this.configuration = resolveConfigurationPaths(configuration, directory)
+    }
+
+    /**
+     * Directory the paths of the configuration are relative to. The source paths written
+     * in the generated comments are relative to it, so that they are the same whether the
+     * configuration is generated alone or in a batch.
+     */
+    private getBaseDirectory() {
+        return path.resolve(this.directory || '.')
+    }
+
+    run(): Promise<void> {
+        return runBatch([this])
+    }
+
+    getConfiguration() {
+        return this.configuration
+    }
+
+    needsProgram() {
+        return !this.upToDate && !this.cachedTypes
+    }
+
+    /**
+     * Lists the typings, computes the hashes and loads what can be loaded from the
+     * previous generation. The hashes of the previous configurations are included since
+     * they determine the typings and the types left to this one.
+     */
+    prepare(processedFiles: Map<string, string>, previousHashes: { typings: string, inputs: string }): { typings: string, inputs: string } {
+        let profiler = this.profiler
+
+        let fileHashes = new Map<string, string>()
+        this.ownedFiles = []
+        tools.browseTypescriptDefinitionFilesRecursively(this.configuration.sourceRootDir).forEach(file => {
+            let hash = Manifest.hashContent(fs.readFileSync(file, 'utf8'))
+            fileHashes.set(file, hash)
+            if (processedFiles.has(hash)) {
+                console.log(`${file} is the same as ${processedFiles.get(hash)}, it is not processed again`)
+                return
+            }
+            processedFiles.set(hash, file)
+            this.ownedFiles.push(file)
+        })
+
+        this.typingsHash = profiler.measure('typings hash', () => this.computeTypingsHash(fileHashes, previousHashes.typings))
+        this.inputsHash = profiler.measure('inputs hash', () => this.computeInputsHash(this.typingsHash, previousHashes.inputs))
+        this.previousManifest = Manifest.GenerationManifest.load(this.configuration.outputDirectory)
+        this.upToDate = this.previousManifest.isUpToDate(this.configuration.outputDirectory, this.inputsHash)
+
+        if (!this.upToDate && this.configuration.modelCache)
+            this.cachedTypes = profiler.measure('model cache load', () => new ModelCache(this.configuration.modelCache).load(this.typingsHash))
+
+        return { typings: this.typingsHash, inputs: this.inputsHash }
+    }
+
+    /**
+     * Generates the configuration from the shared program (null when no configuration needs it),
+     * then adds the generated types to the provided ones
+     */
+    generate(program: ts.Program, allFiles: string[], providedTypes: Set<string>): Promise<void> {
+        let profiler = this.profiler
+
+        if (this.upToDate) {
+            console.log(`typings and configuration did not change since last generation of ${this.configuration.outputDirectory}, nothing to do.`)
+            this.previousManifest.types.forEach(type => providedTypes.add(type))
+            return Promise.resolve()
+        }
+
+        let gatherPhase: GatherPhase = null
+        let typeMap: TypescriptToJavaTypemap = null
+
+        if (this.cachedTypes) {
+            // the types are restored without their typescript program, which is not needed anymore
+            console.log(`typings did not change, using the types cached in ${this.configuration.modelCache}`)
+            program = null
+            typeMap = new TypescriptToJavaTypemap(null, null, null)
+            this.cachedTypes.forEach(type => typeMap.registerType({}, type))
+        }
+        else {
+            console.log(`Analyzing exportable nodes...`)
+            gatherPhase = new GatherPhase(this.configuration.baseJavaPackage, this.configuration.defaultJavaPackage, this.configuration.javaPackages, program, this.getBaseDirectory())
+            profiler.measure('gather', () => program.getSourceFiles().forEach(sourceFile => {
+                let isOwnedFile = this.ownedFiles.some(file => path.normalize(file) === path.normalize(sourceFile.fileName))
+                let isInternalFile = !allFiles.some(file => path.normalize(file) === path.normalize(sourceFile.fileName))
+                if (isOwnedFile || (this.configuration.processInternalTypes && isInternalFile)) {
+                    //console.log(`source ${sourceFile.fileName}`)
+                    gatherPhase.addTypesFromSourceFile(sourceFile)
+                }
+            }))
+            typeMap = gatherPhase.getTypeMap()
+
+            // the cache is written before the transformations, which modify the types
+            if (this.configuration.modelCache) {
+                profiler.measure('model cache save', () => {
+                    try {
+                        new ModelCache(this.configuration.modelCache).save(this.typingsHash, typeMap.getRegisteredTypes(), sourceType => this.describeSourceType(sourceType, program))
+                    }
+                    catch (err) {
+                        console.log(`the types cannot be cached : ${err}`)
+                    }
+                })
+            }
+        }
+        profiler.countTypes('gather', typeMap.typeSet())
+
+        profiler.measure('transformations', () => Transformers.applyTransformations(typeMap, this.configuration, profiler))
+
+        if (gatherPhase)
+            gatherPhase.sumup()
+        let types = typeMap.typeSet()
+
+        console.log(`Exporting nodes...`)
+        let exportPhase = new ExportPhase(this.previousManifest, this.getBaseDirectory())
+        return profiler.measureAsync('export', () => exportPhase.exportNodes(types, program, this.configuration.outputDirectory, this.configuration.adding, this.configuration.removing, this.configuration.constantValues, this.configuration.accessorStyle, this.configuration.modules, providedTypes))
+            .then(() => {
+                let manifest = exportPhase.getManifest()
+                manifest.inputsHash = this.inputsHash
+                manifest.save(this.configuration.outputDirectory)
+                manifest.types.forEach(type => providedTypes.add(type))
+
+                if (this.configuration.overloadExpansionReport)
+                    this.writeOverloadExpansionReport(exportPhase.getOverloadExpansionReport())
+
+                if (this.configuration.profilingReport)
+                    profiler.save(this.configuration.profilingReport)
+
+                console.log(`Finished.`)
+            })
+    }
+
+    /** description of a source type kept in the model cache, as the export would write it */
+    private describeSourceType(sourceType: ts.Type, program: ts.Program): string[] {
+        // union types are only source types of unions, which describe them differently
+        if (sourceType.flags & ts.TypeFlags.Union)
+            return tsTools.describeUnionSourceType(sourceType, this.getBaseDirectory())
+        return tsTools.describeSourceType(sourceType, program.getTypeChecker(), this.getBaseDirectory())
     }
 
-    run() {
-        let files = tools.browseTypescriptDefinitionFilesRecursively(this.configuration.sourceRootDir)
+    /**
+     * Creates the program. When several source directories are given, the non relative
+     * module names are looked for in each of them.
+     */
+    createProgram(files: string[], sourceRootDirs: string[]): ts.Program {
+        let profiler = this.profiler
 
         let compilerOptions: ts.CompilerOptions = {
             baseUrl: this.configuration.sourceRootDir,
@@ -39,15 +235,24 @@ export class Engine {
                 "**/*.map"
             ]
         }
+        if (sourceRootDirs) {
+            compilerOptions.baseUrl = '.'
+            compilerOptions.paths = { '*': sourceRootDirs.map(dir => `${dir}/*`) }
+            delete compilerOptions.rootDir
+        }
 
         console.log(`Program creation...`)
-        let program = ts.createProgram(files, compilerOptions)
+        let program = profiler.measure('program creation', () => ts.createProgram(files, compilerOptions))
 
-        console.log(`Emitting result...`)
-        let emitResult = program.emit()
+        // definition files produce no javascript, emitting is only useful to get its diagnostics
+        let emitResult: ts.EmitResult = null
+        if (!this.configuration.skipEmit) {
+            console.log(`Emitting result...`)
+            emitResult = profiler.measure('emit', () => program.emit())
+        }
 
         console.log(`Compiling diagnostics...`)
-        let allDiagnostics = ts.getPreEmitDiagnostics(program).concat(emitResult.diagnostics);
+        let allDiagnostics = profiler.measure('diagnostics', () => ts.getPreEmitDiagnostics(program).concat(emitResult ? emitResult.diagnostics : []))
         allDiagnostics.forEach(diagnostic => {
             let message = ts.flattenDiagnosticMessageText(diagnostic.messageText, '\n')
 
@@ -60,29 +265,112 @@ export class Engine {
             }
         });
 
-        if (emitResult.emitSkipped) {
+        if (emitResult && emitResult.emitSkipped) {
             console.log(`emit has been skipped, exit.`)
         }
 
-        console.log(`Analyzing exportable nodes...`)
-        let gatherPhase = new GatherPhase(this.configuration.baseJavaPackage, this.configuration.defaultJavaPackage, this.configuration.javaPackages, program)
-        program.getSourceFiles().forEach(sourceFile => {
-            let isInternalFile = !files.find(file => path.normalize(file) === path.normalize(sourceFile.fileName))
-            if (this.configuration.processInternalTypes || !isInternalFile) {
-                //console.log(`source ${sourceFile.fileName}`)
-                gatherPhase.addTypesFromSourceFile(sourceFile)
-            }
-        })
+        return program
+    }
 
-        Transformers.applyTransformations(gatherPhase.getTypeMap(), this.configuration.renaming)
+    /**
+     * Writes the methods developed from union parameters, the ones adding the most code first
+     */
+    private writeOverloadExpansionReport(report: { [key: string]: { nbOverloads: number, nbBytes: number } }) {
+        let methods = Object.keys(report)
+            .map(method => ({ method, nbOverloads: report[method].nbOverloads, nbBytes: report[method].nbBytes }))
+            .sort((a, b) => b.nbBytes - a.nbBytes)
 
-        gatherPhase.sumup()
-        let types = gatherPhase.getTypeMap().typeSet()
+        let content = {
+            nbMethods: methods.length,
+            nbOverloads: methods.reduce((sum, m) => sum + m.nbOverloads, 0),
+            nbBytes: methods.reduce((sum, m) => sum + m.nbBytes, 0),
+            methods
+        }
 
-        console.log(`Exporting nodes...`)
-        let exportPhase = new ExportPhase()
-        exportPhase.exportNodes(types, program, this.configuration.outputDirectory, this.configuration.adding, this.configuration.removing)
+        console.log(`${content.nbOverloads} overloads (${content.nbBytes} bytes) developed from ${content.nbMethods} methods, report written to ${this.configuration.overloadExpansionReport}`)
+        fs.writeFileSync(this.configuration.overloadExpansionReport, JSON.stringify(content, null, 2), 'utf8')
+    }
 
-        console.log(`Finished.`)
+    /**
+     * Hash of what the gathered types depend on : the typings, the configuration
+     * of the gathering, the generator itself and the typings of the previous configurations
+     */
+    private computeTypingsHash(fileHashes: Map<string, string>, previousTypingsHash: string): string {
+        let gatherConfiguration = {
+            sourceRootDir: this.configuration.sourceRootDir,
+            baseJavaPackage: this.configuration.baseJavaPackage,
+            defaultJavaPackage: this.configuration.defaultJavaPackage,
+            javaPackages: this.configuration.javaPackages,
+            processInternalTypes: this.configuration.processInternalTypes
+        }
+        let inputs: string[] = [JSON.stringify(gatherConfiguration)]
+        if (previousTypingsHash)
+            inputs.push(previousTypingsHash)
+
+        for (let generatorDirectory of [__dirname, path.join(__dirname, 'prejavatypes')]) {
+            fs.readdirSync(generatorDirectory)
+                .filter(file => file.endsWith('.js'))
+                .sort()
+                .forEach(file => inputs.push(`${file}:${Manifest.hashContent(fs.readFileSync(path.join(generatorDirectory, file), 'utf8'))}`))
+        }
+
+        Array.from(fileHashes.keys())
+            .sort()
+            .forEach(file => inputs.push(`${file}:${fileHashes.get(file)}`))
+
+        return Manifest.hashContent(inputs.join('\n'))
+    }
+
+    /**
+     * Hash of everything the generation depends on : the typings (see computeTypingsHash),
+     * the configuration, the files it references and the inputs of the previous configurations
+     */
+    private computeInputsHash(typingsHash: string, previousInputsHash: string): string {
+        let inputs: string[] = [JSON.stringify(this.configuration), typingsHash]
+        if (previousInputsHash)
+            inputs.push(previousInputsHash)
+
+        let referencedFiles: string[] = []
+        for (let packageName in (this.configuration.adding || {}))
+            for (let className in this.configuration.adding[packageName])
+                referencedFiles.push(this.configuration.adding[packageName][className])
+        for (let packageName in (this.configuration.constantValues || {}))
+            referencedFiles.push(this.configuration.constantValues[packageName])
+
+        referencedFiles
+            .sort()
+            .forEach(file => inputs.push(`${file}:${Manifest.hashContent(fs.readFileSync(file, 'utf8'))}`))
+
+        return Manifest.hashContent(inputs.join('\n'))
+    }
+}
+
+/** copy of the configuration whose paths, relative to the given directory, are made relative to the current directory */
+function resolveConfigurationPaths(configuration: Configuration, directory: string): Configuration {
+    let resolve = (file: string) => (file && !path.isAbsolute(file)) ? path.join(directory, file) : file
+    let resolveAll = (files: { [key: string]: string }) => {
+        if (!files)
+            return files
+        let res: { [key: string]: string } = {}
+        for (let key in files)
+            res[key] = resolve(files[key])
+        return res
     }
-}
\ No newline at end of file
+
+    let adding: { [key: string]: { [key: string]: string } } = null
+    if (configuration.adding) {
+        adding = {}
+        for (let packageName in configuration.adding)
+            adding[packageName] = resolveAll(configuration.adding[packageName])
+    }
+
+    return Object.assign({}, configuration, {
+        sourceRootDir: resolve(configuration.sourceRootDir),
+        outputDirectory: resolve(configuration.outputDirectory),
+        adding,
+        constantValues: resolveAll(configuration.constantValues),
+        overloadExpansionReport: resolve(configuration.overloadExpansionReport),
+        profilingReport: resolve(configuration.profilingReport),
+        modelCache: resolve(configuration.modelCache)
+    })
+}
@@ -1,30 +1,39 @@
 import * as fs from 'fs'
+import * as path from 'path'
 import * as Engine from './engine'
 
-// read configuration file through program argument (typescript2java.conf by default)
+// read configuration files through program arguments
 // check default values in the configuration file
-// execute the engine
+// execute the engine, with one shared program when several configurations are given
 
-if (process.argv.length < 2) {
-    console.log(`usage : ts2java configuration_file`)
+if (process.argv.length < 3) {
+    console.log(`usage : ts2java configuration_file [other_configuration_file...]`)
     process.exit()
 }
 
-let configurationFile = process.argv[process.argv.length - 1]
-let configurationString = fs.readFileSync(configurationFile, "utf8")
+let configurationFiles = process.argv.slice(2)
 
-let configuration: Engine.Configuration = null
+let engines = configurationFiles.map(configurationFile => {
+    let configurationString = fs.readFileSync(configurationFile, "utf8")
 
-try {
-    configuration = JSON.parse(configurationString)
-}
-catch (err) {
-}
+    let configuration: Engine.Configuration = null
 
-if (!configuration) {
-    console.log(`error when reading file ${configurationFile}`)
-    process.exit()
-}
+    try {
+        configuration = JSON.parse(configurationString)
+    }
+    catch (err) {
+    }
+
+    if (!configuration) {
+        console.log(`error when reading file ${configurationFile}`)
+        process.exit()
+    }
+
+    // in a batch, the paths of each configuration are relative to its file
+    return new Engine.Engine(configuration, configurationFiles.length > 1 ? path.dirname(configurationFile) : null)
+})
 
-let engine = new Engine.Engine(configuration)
-engine.run()
\ No newline at end of file
+Engine.runBatch(engines).catch(err => {
+    console.error(`error during generation : ${err}`)
+    process.exit(1)
+})
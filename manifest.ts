@@ -0,0 +1,149 @@
+import * as fs from "fs"
+import * as path from "path"
+import * as crypto from "crypto"
+import { mkdirRec } from "./tools"
+
+const MANIFEST_FILE_NAME = '.ts2java-manifest.json'
+
+export function hashContent(content: string): string {
+    return crypto.createHash('sha1').update(content, 'utf8').digest('hex')
+}
+
+/** hash of a generated file content, and size and modification time of the file once written */
+export interface GeneratedFile {
+    hash: string
+    // -1 when the file has not been written yet, or in manifests written before they were recorded
+    size: number
+    mtime: number
+}
+
+/**
+ * Remembers, in the output directory, the hash of the generation inputs and of each
+ * generated file. This allows to skip a generation when nothing changed, to rewrite only
+ * the files whose content changed (leaving untouched files timestamps, and so the Java
+ * incremental build, alone) and to remove the files which are not generated anymore.
+ *
+ * A generated file is only considered unchanged when the file on disk still has the
+ * generated content, so that output files edited or reverted by hand are restored.
+ */
+export class GenerationManifest {
+    inputsHash: string = null
+
+    // relative path of the generated file -> hash of its content, size and modification time
+    files: { [key: string]: GeneratedFile } = {}
+
+    // fully qualified names of the generated types
+    types: string[] = []
+
+    static load(outputDirectory: string): GenerationManifest {
+        let manifest = new GenerationManifest()
+
+        let fileName = path.join(outputDirectory, MANIFEST_FILE_NAME)
+        if (!fs.existsSync(fileName))
+            return manifest
+
+        try {
+            let content = JSON.parse(fs.readFileSync(fileName, 'utf8'))
+            manifest.inputsHash = content.inputsHash || null
+            let files = content.files || {}
+            for (let relativePath in files) {
+                let file = files[relativePath]
+                manifest.files[relativePath] = typeof file === 'string' ? { hash: file, size: -1, mtime: -1 } : file
+            }
+            manifest.types = content.types || []
+        }
+        catch (err) {
+            console.log(`ignoring unreadable manifest ${fileName}`)
+        }
+
+        return manifest
+    }
+
+    /** saves the manifest once the generated files are written, and records their size and modification time */
+    save(outputDirectory: string) {
+        for (let relativePath in this.files) {
+            let file = this.files[relativePath]
+            if (file.size >= 0)
+                continue
+
+            let fileName = path.join(outputDirectory, relativePath)
+            if (!fs.existsSync(fileName))
+                continue
+            let stats = fs.statSync(fileName)
+            file.size = stats.size
+            file.mtime = stats.mtime.getTime()
+        }
+
+        mkdirRec(outputDirectory)
+        let fileName = path.join(outputDirectory, MANIFEST_FILE_NAME)
+        fs.writeFileSync(fileName, JSON.stringify({ inputsHash: this.inputsHash, files: this.files, types: this.types }, null, 2), 'utf8')
+    }
+
+    isUpToDate(outputDirectory: string, inputsHash: string): boolean {
+        if (this.inputsHash != inputsHash)
+            return false
+
+        for (let relativePath in this.files) {
+            if (!this.isOnDisk(outputDirectory, relativePath))
+                return false
+        }
+
+        return true
+    }
+
+    /** records the generated file, returns true if it has to be written because its content is not the one of the file on disk */
+    recordFile(outputDirectory: string, relativePath: string, content: string, previous: GenerationManifest): boolean {
+        let hash = hashContent(content)
+        let file: GeneratedFile = { hash, size: -1, mtime: -1 }
+        this.files[relativePath] = file
+
+        let previousFile = previous && previous.files[relativePath]
+        if (previousFile && previousFile.hash == hash && previous.isOnDisk(outputDirectory, relativePath)) {
+            file.size = previousFile.size
+            file.mtime = previousFile.mtime
+            return false
+        }
+
+        return true
+    }
+
+    /**
+     * Is the recorded content still the one of the file on disk ? The file is only read and
+     * hashed when its size or modification time changed since it was written.
+     */
+    private isOnDisk(outputDirectory: string, relativePath: string): boolean {
+        let file = this.files[relativePath]
+        let fileName = path.join(outputDirectory, relativePath)
+        if (!fs.existsSync(fileName))
+            return false
+
+        let stats = fs.statSync(fileName)
+        if (stats.size == file.size && stats.mtime.getTime() == file.mtime)
+            return true
+
+        if (hashContent(fs.readFileSync(fileName, 'utf8')) != file.hash)
+            return false
+
+        // same content, written again or touched : the next checks do not need to read it
+        file.size = stats.size
+        file.mtime = stats.mtime.getTime()
+        return true
+    }
+
+    /** deletes the files generated previously which have not been generated this time */
+    removeStaleFiles(outputDirectory: string, previous: GenerationManifest) {
+        if (!previous)
+            return
+
+        for (let relativePath in previous.files) {
+            if (relativePath in this.files)
+                continue
+
+            let fileName = path.join(outputDirectory, relativePath)
+            if (fs.existsSync(fileName)) {
+                console.log(`removing stale file ${relativePath}`)
+                fs.unlinkSync(fileName)
+            }
+        }
+    }
+}
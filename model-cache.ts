@@ -0,0 +1,230 @@
+import * as fs from "fs"
+import * as path from "path"
+import * as BuiltIn from './builtin-types'
+import { mkdirRec } from "./tools"
+
+import { PreJavaType } from './prejavatypes/PreJavaType'
+import { PreJavaTypeBuiltinJavaType } from './prejavatypes/PreJavaTypeBuiltinJavaType'
+import { PreJavaTypeCallSignature } from './prejavatypes/PreJavaTypeCallSignature'
+import { PreJavaTypeClassOrInterface } from './prejavatypes/PreJavaTypeClassOrInterface'
+import { PreJavaTypeEnum } from './prejavatypes/PreJavaTypeEnum'
+import { PreJavaTypeFakeType } from './prejavatypes/PreJavaTypeFakeType'
+import { PreJavaTypeParameter } from './prejavatypes/PreJavaTypeParameter'
+import { PreJavaTypeReference, PreJavaTypeTPEnvironnement } from './prejavatypes/PreJavaTypeReference'
+import { PreJavaTypeTuple } from './prejavatypes/PreJavaTypeTuple'
+import { PreJavaTypeUnion } from './prejavatypes/PreJavaTypeUnion'
+
+/**
+ * Typescript types of a cached model are replaced by their description, as
+ * written in the generated java comments
+ */
+export interface CachedSourceType {
+    description: string[]
+}
+
+// classes whose instances can be cached, by name
+const CACHEABLE_CLASSES: { [key: string]: Function } = {
+    PreJavaTypeBuiltinJavaType,
+    PreJavaTypeCallSignature,
+    PreJavaTypeClassOrInterface,
+    PreJavaTypeEnum,
+    PreJavaTypeFakeType,
+    PreJavaTypeParameter,
+    PreJavaTypeReference,
+    PreJavaTypeTPEnvironnement,
+    PreJavaTypeTuple,
+    PreJavaTypeUnion
+}
+
+// cached values are either json primitives or references ({ $: index }) to the objects table
+type CachedValue = string | number | boolean | { $: number }
+
+interface CachedObject {
+    // kind of the object : array, set, map, object, builtin or sourceType
+    k: string
+    // class name of the object, or name of the builtin type
+    c?: string
+    // prototype of a plain object created with Object.create
+    p?: CachedValue
+    // content
+    v?: any
+}
+
+/**
+ * Keeps on disk the types gathered from the typings, so that the next generations
+ * with the same typings can skip the typescript program creation, emit, diagnostics
+ * and gathering.
+ *
+ * The type graph is written as a table of objects referencing each other by their
+ * index, which keeps the sharing and the cycles of the graph. The builtin types are
+ * written by name and restored to the same instances.
+ */
+export class ModelCache {
+    constructor(private fileName: string) {
+    }
+
+    /** returns the cached types, or null if the cache does not match the key */
+    load(key: string): PreJavaType[] {
+        if (!fs.existsSync(this.fileName))
+            return null
+
+        try {
+            let content = JSON.parse(fs.readFileSync(this.fileName, 'utf8'))
+            if (content.key != key)
+                return null
+
+            return new ModelReader(content.objects).read(content.types)
+        }
+        catch (err) {
+            console.log(`ignoring unreadable model cache ${this.fileName} : ${err}`)
+            return null
+        }
+    }
+
+    /** writes the types, describing their source types with the given function */
+    save(key: string, types: PreJavaType[], describeSourceType: (sourceType: any) => string[]) {
+        let writer = new ModelWriter(describeSourceType)
+        let content = {
+            key,
+            types: types.map(type => writer.write(type)),
+            objects: writer.objects
+        }
+
+        mkdirRec(path.dirname(this.fileName))
+        fs.writeFileSync(this.fileName, JSON.stringify(content), 'utf8')
+    }
+}
+
+class ModelWriter {
+    objects: CachedObject[] = []
+
+    private indices = new Map<any, number>()
+    private builtinNames = new Map<any, string>()
+
+    constructor(private describeSourceType: (sourceType: any) => string[]) {
+        for (let name in BuiltIn)
+            this.builtinNames.set(BuiltIn[name], name)
+    }
+
+    write(value: any): CachedValue {
+        if (value === null || value === undefined || typeof value != 'object')
+            return value
+
+        if (this.indices.has(value))
+            return { $: this.indices.get(value) }
+
+        let index = this.objects.length
+        let cached: CachedObject = { k: null }
+        this.objects.push(cached)
+        this.indices.set(value, index)
+
+        if (this.builtinNames.has(value)) {
+            cached.k = 'builtin'
+            cached.c = this.builtinNames.get(value)
+        }
+        else if (Array.isArray(value)) {
+            cached.k = 'array'
+            cached.v = value.map(item => this.write(item))
+        }
+        else if (value instanceof Set) {
+            cached.k = 'set'
+            cached.v = Array.from(value).map(item => this.write(item))
+        }
+        else if (value instanceof Map) {
+            cached.k = 'map'
+            cached.v = Array.from(value.entries()).map(([key, item]) => [this.write(key), this.write(item)])
+        }
+        else if (isTypescriptType(value)) {
+            cached.k = 'sourceType'
+            cached.v = this.describeSourceType(value)
+        }
+        else {
+            cached.k = 'object'
+
+            let prototype = Object.getPrototypeOf(value)
+            if (prototype && prototype != Object.prototype) {
+                let className = Object.keys(CACHEABLE_CLASSES).find(name => CACHEABLE_CLASSES[name].prototype == prototype)
+                if (className)
+                    cached.c = className
+                else if (!prototype.hasOwnProperty('constructor'))
+                    cached.p = this.write(prototype)
+                else
+                    throw `cannot cache an instance of ${prototype.constructor && prototype.constructor.name}`
+            }
+
+            cached.v = {}
+            for (let field of Object.keys(value))
+                cached.v[field] = this.write(value[field])
+        }
+
+        return { $: index }
+    }
+}
+
+class ModelReader {
+    private values: any[] = []
+
+    constructor(private objects: CachedObject[]) {
+    }
+
+    read(types: CachedValue[]): PreJavaType[] {
+        // instances are created first so that the references can be resolved whatever their order
+        this.values = this.objects.map(cached => this.create(cached))
+        this.objects.forEach((cached, index) => this.fill(cached, this.values[index]))
+
+        return types.map(type => this.resolve(type))
+    }
+
+    private create(cached: CachedObject): any {
+        switch (cached.k) {
+            case 'builtin':
+                if (!(cached.c in BuiltIn))
+                    throw `unknown builtin type ${cached.c}`
+                return BuiltIn[cached.c]
+            case 'array':
+                return []
+            case 'set':
+                return new Set()
+            case 'map':
+                return new Map()
+            case 'sourceType':
+                return { description: cached.v } as CachedSourceType
+            case 'object':
+                if (cached.c && !(cached.c in CACHEABLE_CLASSES))
+                    throw `unknown cached class ${cached.c}`
+                return cached.c ? Object.create(CACHEABLE_CLASSES[cached.c].prototype) : {}
+            default:
+                throw `unknown cached object kind ${cached.k}`
+        }
+    }
+
+    private fill(cached: CachedObject, value: any) {
+        switch (cached.k) {
+            case 'array':
+                cached.v.forEach(item => value.push(this.resolve(item)))
+                break
+            case 'set':
+                cached.v.forEach(item => value.add(this.resolve(item)))
+                break
+            case 'map':
+                cached.v.forEach(([key, item]) => value.set(this.resolve(key), this.resolve(item)))
+                break
+            case 'object':
+                if (cached.p !== undefined)
+                    Object.setPrototypeOf(value, this.resolve(cached.p))
+                for (let field in cached.v)
+                    value[field] = this.resolve(cached.v[field])
+                break
+        }
+    }
+
+    private resolve(value: CachedValue): any {
+        if (value !== null && typeof value == 'object')
+            return this.values[value.$]
+        return value
+    }
+}
+
+function isTypescriptType(value: any) {
+    return typeof value.flags == 'number' && 'checker' in value
+}
@@ -0,0 +1,165 @@
+import * as path from "path"
+
+/**
+ * A module of the output. Types whose simple name matches one of the includes
+ * regular expressions go into the module (the first matching module wins),
+ * types matching no module go into the module without includes (or the first one).
+ */
+export interface ModuleDefinition {
+    name: string
+    includes?: string[]
+}
+
+export interface ExportedUnit {
+    fqn: string
+    packageName: string
+    simpleName: string
+    content: string
+    // fully qualified names of the types used by the unit
+    references: Set<string>
+    // name of the module chosen by the transformations (see Transformers.layerModules), if any
+    module?: string
+}
+
+/**
+ * Finds the module of a type from the includes of the modules
+ */
+export class ModuleIncludes {
+    private includes: RegExp[][]
+    private catchAllModule: number
+
+    constructor(modules: ModuleDefinition[]) {
+        this.includes = modules.map(m => (m.includes || []).map(include => new RegExp(include)))
+        this.catchAllModule = Math.max(0, modules.findIndex(m => !m.includes || !m.includes.length))
+    }
+
+    /** index of the first module including the simple name, -1 if there is none */
+    getIncludingModule(simpleName: string) {
+        return this.includes.findIndex(regExps => regExps.some(regExp => regExp.test(simpleName)))
+    }
+
+    /** index of the module of the types no module includes */
+    getCatchAllModule() {
+        return this.catchAllModule
+    }
+
+    getModule(simpleName: string) {
+        let moduleIndex = this.getIncludingModule(simpleName)
+        return moduleIndex >= 0 ? moduleIndex : this.catchAllModule
+    }
+}
+
+/**
+ * Partitions the exported units into modules, each having its own source directory and
+ * GWT module file inheriting the modules it depends on.
+ *
+ * The order of the modules is a layering : a module can only depend on the modules
+ * before it. When a type uses a type of a module coming after its own, the used type
+ * is pulled down into the module of the user. The dependency graph is thus acyclic.
+ *
+ * A unit whose module has been chosen by the transformations starts in it, the
+ * transformations having already removed the references to the later modules.
+ */
+export class ModulePartition {
+    private initialModuleOfUnit = new Map<string, number>()
+    private moduleOfUnit = new Map<string, number>()
+    private dependencies: Set<number>[] = []
+
+    constructor(private modules: ModuleDefinition[]) {
+    }
+
+    partition(units: ExportedUnit[]) {
+        let includes = new ModuleIncludes(this.modules)
+
+        this.modules.forEach((m, index) => this.dependencies[index] = new Set<number>())
+
+        for (let unit of units) {
+            let chosenModule = unit.module ? this.modules.findIndex(m => m.name == unit.module) : -1
+            this.initialModuleOfUnit.set(unit.fqn, includes.getModule(unit.simpleName))
+            this.moduleOfUnit.set(unit.fqn, chosenModule >= 0 ? chosenModule : includes.getModule(unit.simpleName))
+        }
+
+        let somethingChanged = true
+        while (somethingChanged) {
+            somethingChanged = false
+
+            for (let unit of units) {
+                let moduleIndex = this.moduleOfUnit.get(unit.fqn)
+                unit.references.forEach(reference => {
+                    let referencedModuleIndex = this.moduleOfUnit.get(reference)
+                    if (referencedModuleIndex === undefined || referencedModuleIndex <= moduleIndex)
+                        return
+
+                    this.moduleOfUnit.set(reference, moduleIndex)
+                    somethingChanged = true
+                })
+            }
+        }
+
+        for (let unit of units) {
+            let moduleIndex = this.moduleOfUnit.get(unit.fqn)
+            unit.references.forEach(reference => {
+                let referencedModuleIndex = this.moduleOfUnit.get(reference)
+                if (referencedModuleIndex !== undefined && referencedModuleIndex != moduleIndex)
+                    this.dependencies[moduleIndex].add(referencedModuleIndex)
+            })
+        }
+    }
+
+    /** path of the unit's java file relative to the output directory */
+    getRelativeFileName(unit: ExportedUnit) {
+        let moduleDirectory = this.modules[this.moduleOfUnit.get(unit.fqn)].name
+        return path.join(moduleDirectory, unit.packageName.replace(/\./g, '/'), `${unit.simpleName}.java`)
+    }
+
+    /** GWT module files, relative path -> content */
+    getGwtModuleFiles(units: ExportedUnit[]): { [key: string]: string } {
+        let res: { [key: string]: string } = {}
+
+        this.modules.forEach((m, index) => {
+            // package -> simple names
+            let sources = new Map<string, string[]>()
+            units
+                .filter(unit => this.moduleOfUnit.get(unit.fqn) == index)
+                .forEach(unit => {
+                    if (!sources.has(unit.packageName))
+                        sources.set(unit.packageName, [])
+                    sources.get(unit.packageName).push(unit.simpleName)
+                })
+
+            let content = ''
+            content += `<?xml version="1.0" encoding="UTF-8"?>\n`
+            content += `<!DOCTYPE module PUBLIC "-//Google Inc.//DTD Google Web Toolkit 2.7.0//EN"\n`
+            content += `        "http://gwtproject.org/doctype/2.7.0/gwt-module.dtd">\n`
+            content += `<module>\n`
+            content += `    <inherits name='com.google.gwt.user.User'/>\n`
+            content += `    <inherits name='jsinterop.base.Base'/>\n`
+            content += `    <inherits name='jsinterop.annotations.Annotations'/>\n`
+            Array.from(this.dependencies[index]).sort((a, b) => a - b).forEach(dependency => content += `    <inherits name='${this.modules[dependency].name}'/>\n`)
+            Array.from(sources.keys()).sort().forEach(packageName => {
+                content += `    <source path="${packageName.replace(/\./g, '/')}">\n`
+                sources.get(packageName).sort().forEach(simpleName => content += `        <include name="${simpleName}.java"/>\n`)
+                content += `    </source>\n`
+            })
+            content += `</module>\n`
+
+            res[path.join(m.name, `${m.name}.gwt.xml`)] = content
+        })
+
+        return res
+    }
+
+    /** for each module, its number of types, the modules it depends on and the types it has without including them */
+    getReport(units: ExportedUnit[]) {
+        let res = {}
+        this.modules.forEach((m, index) => {
+            let moduleUnits = units.filter(unit => this.moduleOfUnit.get(unit.fqn) == index)
+            res[m.name] = {
+                nbTypes: moduleUnits.length,
+                dependsOn: Array.from(this.dependencies[index]).sort((a, b) => a - b).map(dependency => this.modules[dependency].name),
+                pulledDown: moduleUnits.filter(unit => this.initialModuleOfUnit.get(unit.fqn) != index).map(unit => unit.fqn).sort()
+            }
+        })
+        return res
+    }
+}
@@ -9,6 +9,8 @@ export interface ProcessContext {
     getJsPackage(symbol: ts.Symbol): string
     getProgram: () => ts.Program
     getTypeMap: () => TypescriptToJavaTypemap
+    // path of a source file as written in the generated comments
+    getSourcePath: (sourceFile: ts.SourceFile) => string
 }
 
 export type TypeReplacer = { (type: PreJavaType): PreJavaType }
@@ -16,6 +18,9 @@ export type TypeReplacer = { (type: PreJavaType): PreJavaType }
 export type TypeEnvironment = { [key: string]: PreJavaType }
 
 export abstract class PreJavaType {
+    // module of the output the type is generated in, see Transformers.layerModules
+    module: string = null
+
     abstract getSourceTypes(): Set<ts.Type>
 
     abstract getHierachyDepth(): number
@@ -12,6 +12,11 @@ export interface PreJavaTypeFormalParameter {
 export class PreJavaTypeCallSignature {
     comments: string[]
 
+    // the method with union parameters this one has been developed from
+    developedFrom: PreJavaTypeCallSignature = null
+    // exported as an overlay calling the developedFrom method rather than as a native method
+    exportAsOverlay = false
+
     constructor(
         public jsMethodName: string,
         public jsPropertyName: string,
@@ -44,6 +44,14 @@ export class PreJavaTypeClassOrInterface extends PreJavaType {
     numberIndexType: PreJavaType
     stringIndexType: PreJavaType
 
+    // events (name and event type) of the *EventMap of the type, exported as typed listener registrations
+    typedEvents: PreJavaTypeProperty[] = null
+    // listener options type (AddEventListenerOptions) of the typed listener registrations, if the typings declare it
+    typedEventOptions: PreJavaType = null
+
+    // type whose members using the types of a later module this class gives typed, see Transformers.layerModules
+    accessedType: PreJavaTypeClassOrInterface = null
+
     getSourceTypes(): Set<ts.Type> { return this.sourceTypes }
 
     isClassLike() { return this.isClass }
@@ -352,7 +360,7 @@ export class PreJavaTypeClassOrInterface extends PreJavaType {
                     for (let callSignature of callSignatures) {
                         let method = context.getTypeMap().convertSignature(propertyName, callSignature, this.typeParameters)
                         if (method) {
-                            this.addTracabilityCommentsToMethod(method, callSignature)
+                            this.addTracabilityCommentsToMethod(method, callSignature, context)
                             method.addComments(comments)
                             if (c++ > 0)
                                 method.comments.push(`VERSION ${c - 1}`)
@@ -393,14 +401,14 @@ export class PreJavaTypeClassOrInterface extends PreJavaType {
         callSignatures && callSignatures.forEach(callSignature => {
             let signature = context.getTypeMap().convertSignature(null, callSignature, this.typeParameters)
             if (signature) {
-                this.addTracabilityCommentsToMethod(signature, callSignature)
+                this.addTracabilityCommentsToMethod(signature, callSignature, context)
                 this.addCallSignature(signature)
             }
         })
     }
 
-    private addTracabilityCommentsToMethod(method: PreJavaTypeCallSignature, callSignature: ts.Signature) {
-        method.addComments(`${callSignature.declaration.getSourceFile().fileName}@${callSignature.declaration.getStart()}`)
+    private addTracabilityCommentsToMethod(method: PreJavaTypeCallSignature, callSignature: ts.Signature, context: ProcessContext) {
+        method.addComments(`${context.getSourcePath(callSignature.declaration.getSourceFile())}@${callSignature.declaration.getStart()}`)
     }
 
     hasOnlyProperties() {
@@ -445,6 +453,18 @@ export class PreJavaTypeClassOrInterface extends PreJavaType {
         if (this.callSignatures)
             this.callSignatures = this.callSignatures.map(s => s.substituteType(replacer, cache, passThroughTypes)).filter(s => s != null)
 
+        if (this.typedEvents) {
+            this.typedEvents = this.typedEvents.map(p => {
+                p.type = p.type.substituteType(replacer, cache, passThroughTypes)
+                if (!p.type)
+                    return null
+                return p
+            }).filter(p => p != null)
+        }
+
+        if (this.typedEventOptions)
+            this.typedEventOptions = this.typedEventOptions.substituteType(replacer, cache, passThroughTypes)
+
         if (this.staticProperties) {
             this.staticProperties = this.staticProperties.map(p => {
                 p.type = p.type.substituteType(replacer, cache, passThroughTypes)
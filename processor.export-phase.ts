@@ -4,9 +4,13 @@ import * as ts from "typescript"
 import * as TypeMap from './type-map'
 import * as GatherPhase from './processor.gather-phase'
 import * as typeTools from './type-tools'
+import * as tsTools from './ts-tools'
 import * as Signature from './signature'
 import * as BuiltIn from './builtin-types'
 import { mkdirRec } from './tools';
+import { GenerationManifest } from './manifest'
+import { ModuleDefinition, ModulePartition, ExportedUnit } from './modules'
+import { CachedSourceType } from './model-cache'
 import { visitPreJavaType } from './prejavatypes/PreJavaTypeVisit'
 import { TextFlow, JavaWriter } from './TextFlow'
 
@@ -20,10 +24,57 @@ import { PreJavaTypeTuple, TUPLE_TYPE_VARIABLE_NAMES } from './prejavatypes/PreJ
 import { PreJavaTypeReference } from './prejavatypes/PreJavaTypeReference'
 import { PreJavaTypeCallSignature, PreJavaTypeFormalParameter } from './prejavatypes/PreJavaTypeCallSignature'
 
+const MAX_CONCURRENT_WRITES = 32
+// number of types generated before their files are written
+const EXPORT_BATCH_SIZE = 64
+// directory of the output where the units are kept until their module is known
+const STAGING_DIRECTORY = '.ts2java-staging'
+
+/**
+ * How the properties of the classes are exported : as public fields, as @JsProperty
+ * getters and setters, or both. Interfaces can only have accessors.
+ */
+export type AccessorStyle = 'fields' | 'accessors' | 'both'
+
+/** java primitive types used to store the elements of the javascript typed arrays */
+const TYPED_ARRAY_ELEMENT_TYPES: { [key: string]: string } = {
+    'Int8Array': 'int',
+    'Uint8Array': 'int',
+    'Uint8ClampedArray': 'int',
+    'Int16Array': 'int',
+    'Uint16Array': 'int',
+    'Int32Array': 'int',
+    'Uint32Array': 'double',
+    'Float32Array': 'float',
+    'Float64Array': 'double'
+}
 
 export class ExportPhase {
     private exportedFqns = new Set<string>()
 
+    private manifest = new GenerationManifest()
+    private units: ExportedUnit[] = []
+    private pendingWrites: { relativeFileName: string, content: string }[] = []
+    private nbUnchangedFiles = 0
+    private nbWrittenFiles = 0
+    private createdDirectories = new Set<string>()
+
+    // 'package.Class.method' -> number and size of the overloads developed from the method union parameters
+    private overloadExpansionReport: { [key: string]: { nbOverloads: number, nbBytes: number } } = {}
+
+    constructor(private previousManifest: GenerationManifest = null,
+        // directory the source paths of the generated comments are relative to
+        private sourceBaseDirectory: string = null) {
+    }
+
+    getManifest() {
+        return this.manifest
+    }
+
+    getOverloadExpansionReport() {
+        return this.overloadExpansionReport
+    }
+
     JS_TYPE = new PreJavaTypeBuiltinJavaType('jsinterop.annotations', 'JsType')
     JS_OVERLAY = new PreJavaTypeBuiltinJavaType('jsinterop.annotations', 'JsOverlay')
     JS_PROPERTY = new PreJavaTypeBuiltinJavaType('jsinterop.annotations', 'JsProperty')
@@ -33,19 +84,247 @@ export class ExportPhase {
     JS_FUNCTION = new PreJavaTypeBuiltinJavaType('jsinterop.annotations', 'JsFunction')
     JS = new PreJavaTypeBuiltinJavaType('jsinterop.base', 'Js')
     DO_NOT_AUTOBOX = new PreJavaTypeBuiltinJavaType('javaemul.internal.annotations', 'DoNotAutobox')
+    // prebuilt types, generated when some types have typed events (see Transformers.addTypedEventListeners)
+    ACTION = new PreJavaTypeBuiltinJavaType('fr.lteconsulting.prebuilt', 'Action')
+    ACTION_1 = new PreJavaTypeBuiltinJavaType('fr.lteconsulting.prebuilt', 'Action1')
+    EVENT_TARGET_METHODS = new PreJavaTypeBuiltinJavaType('fr.lteconsulting.prebuilt', 'EventTargetMethods')
 
-    exportNodes(types: Set<PreJavaType>, program: ts.Program, baseDirectory: string, adding: { [key: string]: { [key: string]: string } }, removing: { [key: string]: { [key: string]: string[] } }) {
-        for (let type of types) {
+    exportNodes(types: Set<PreJavaType>, program: ts.Program, baseDirectory: string, adding: { [key: string]: { [key: string]: string } }, removing: { [key: string]: { [key: string]: string[] } }, constantValues: { [key: string]: string }, accessorStyles: { [key: string]: AccessorStyle }, modules: ModuleDefinition[], providedTypes: Set<string>): Promise<void> {
+        let constants = this.loadConstantValues(constantValues)
+
+        let exportType = (type: PreJavaType) => {
             let fqn = type.getParametrizedFullyQualifiedName(null)
+            if (providedTypes && providedTypes.has(type.getFullyQualifiedName(null))) {
+                console.log(`${fqn} is generated by a previous configuration`)
+                return
+            }
+
             console.log(`exporting ${fqn}`)
 
             visitPreJavaType(type, {
                 caseUnion: type => this.exportUnionType(type, program, baseDirectory),
                 caseTuple: type => this.exportTuple(type, program, baseDirectory),
                 caseEnumType: type => this.exportEnum(type, program, baseDirectory),
-                caseClassOrInterfaceType: type => this.exportClassOrInterface(type, program, baseDirectory, adding, removing)
+                caseClassOrInterfaceType: type => {
+                    if (type.accessedType) {
+                        this.exportModuleAccessor(type, baseDirectory)
+                        return
+                    }
+
+                    let accessorStyle = (accessorStyles && accessorStyles[type.packageName]) || 'both'
+                    this.exportClassOrInterface(type, program, baseDirectory, adding, removing, accessorStyle)
+                    this.maybeExportConstants(type, constants, baseDirectory)
+                }
+            })
+        }
+
+        // the units are written by batches while the next ones are generated, so that the
+        // generated code is not kept in memory. With modules, the destination of a unit is
+        // known only once all of them have been generated : the batches are written to a
+        // staging directory and only the units references are kept until the partition.
+        let useModules = modules && modules.length
+        let typeList = Array.from(types)
+        let exportBatch = (start: number, previousWrites: Promise<void>): Promise<void> => {
+            let end = Math.min(start + EXPORT_BATCH_SIZE, typeList.length)
+            for (let i = start; i < end; i++)
+                exportType(typeList[i])
+
+            let writes = useModules ? this.stageUnits(baseDirectory) : this.recordUnits(baseDirectory)
+
+            if (end >= typeList.length)
+                return Promise.all([previousWrites, writes]).then(() => { })
+            return previousWrites.then(() => exportBatch(end, writes))
+        }
+
+        return exportBatch(0, Promise.resolve())
+            .then(() => useModules ? this.recordModuleUnits(baseDirectory, modules) : null)
+            .then(() => {
+                this.manifest.removeStaleFiles(baseDirectory, this.previousManifest)
+                return this.writePendingFiles(baseDirectory)
             })
+            .then(() => console.log(`${this.nbWrittenFiles} files written, ${this.nbUnchangedFiles} files unchanged`))
+    }
+
+    /** places the exported units in the output directory and writes them */
+    private recordUnits(baseDirectory: string): Promise<void> {
+        this.units.forEach(unit => this.recordFile(baseDirectory, path.join(unit.packageName.replace(/\./g, '/'), `${unit.simpleName}.java`), unit.content))
+        this.units = []
+        return this.writePendingFiles(baseDirectory)
+    }
+
+    /** writes the content of the new units to the staging directory, keeping only their references */
+    private stageUnits(baseDirectory: string): Promise<void> {
+        let writes = this.units
+            .filter(unit => unit.content != null)
+            .map(unit => {
+                let write = { relativeFileName: this.getStagedFileName(unit), content: unit.content }
+                unit.content = null
+                return write
+            })
+        return this.writeFiles(baseDirectory, writes)
+    }
+
+    private getStagedFileName(unit: ExportedUnit) {
+        return path.join(STAGING_DIRECTORY, `${unit.packageName}.${unit.simpleName}.java`)
+    }
+
+    /**
+     * Places the staged units in the directories of their modules, by batches, along with
+     * the modules GWT files and a modules.json dependency report
+     */
+    private recordModuleUnits(baseDirectory: string, modules: ModuleDefinition[]): Promise<void> {
+        let partition = new ModulePartition(modules)
+        partition.partition(this.units)
+
+        let units = this.units
+        let recordBatch = (start: number): Promise<void> => {
+            let end = Math.min(start + EXPORT_BATCH_SIZE, units.length)
+            for (let i = start; i < end; i++) {
+                let stagedFileName = path.join(baseDirectory, this.getStagedFileName(units[i]))
+                this.recordFile(baseDirectory, partition.getRelativeFileName(units[i]), fs.readFileSync(stagedFileName, 'utf8'))
+                fs.unlinkSync(stagedFileName)
+            }
+
+            return this.writePendingFiles(baseDirectory)
+                .then(() => end < units.length ? recordBatch(end) : null)
+        }
+
+        return recordBatch(0).then(() => {
+            this.removeStagingDirectory(baseDirectory)
+            this.recordModuleFiles(baseDirectory, partition)
+        })
+    }
+
+    /** removes the staging directory, with the files an interrupted generation may have left */
+    private removeStagingDirectory(baseDirectory: string) {
+        let stagingDirectory = path.join(baseDirectory, STAGING_DIRECTORY)
+        if (!fs.existsSync(stagingDirectory))
+            return
+
+        fs.readdirSync(stagingDirectory).forEach(fileName => fs.unlinkSync(path.join(stagingDirectory, fileName)))
+        fs.rmdirSync(stagingDirectory)
+        this.createdDirectories.delete(STAGING_DIRECTORY)
+    }
+
+    private recordModuleFiles(baseDirectory: string, partition: ModulePartition) {
+        let gwtModuleFiles = partition.getGwtModuleFiles(this.units)
+        for (let relativeFileName in gwtModuleFiles)
+            this.recordFile(baseDirectory, relativeFileName, gwtModuleFiles[relativeFileName])
+
+        let report = partition.getReport(this.units)
+        for (let moduleName in report)
+            console.log(`module ${moduleName} : ${report[moduleName].nbTypes} types, depends on [${report[moduleName].dependsOn.join(', ')}], ${report[moduleName].pulledDown.length} types pulled down`)
+        this.recordFile(baseDirectory, 'modules.json', JSON.stringify(report, null, 2))
+
+        this.units = []
+    }
+
+    private recordFile(baseDirectory: string, relativeFileName: string, content: string) {
+        if (this.manifest.recordFile(baseDirectory, relativeFileName, content, this.previousManifest))
+            this.pendingWrites.push({ relativeFileName, content })
+        else
+            this.nbUnchangedFiles++
+    }
+
+    private writePendingFiles(baseDirectory: string): Promise<void> {
+        let pendingWrites = this.pendingWrites
+        this.pendingWrites = []
+        this.nbWrittenFiles += pendingWrites.length
+        return this.writeFiles(baseDirectory, pendingWrites)
+    }
+
+    /**
+     * Creates the needed directories (once per generation), then writes the files asynchronously,
+     * with at most MAX_CONCURRENT_WRITES writes in flight
+     */
+    private writeFiles(baseDirectory: string, pendingWrites: { relativeFileName: string, content: string }[]): Promise<void> {
+        pendingWrites.forEach(write => {
+            let directory = path.dirname(write.relativeFileName)
+            if (!this.createdDirectories.has(directory)) {
+                this.createdDirectories.add(directory)
+                mkdirRec(path.join(baseDirectory, directory))
+            }
+        })
+
+        let nextIndex = 0
+        let writeNextFile = (): Promise<void> => {
+            if (nextIndex >= pendingWrites.length)
+                return Promise.resolve()
+
+            let write = pendingWrites[nextIndex++]
+            return new Promise<void>((resolve, reject) => {
+                fs.writeFile(path.join(baseDirectory, write.relativeFileName), write.content, 'utf8', err => err ? reject(err) : resolve())
+            }).then(writeNextFile)
         }
+
+        let writers: Promise<void>[] = []
+        for (let i = 0; i < MAX_CONCURRENT_WRITES; i++)
+            writers.push(writeNextFile())
+
+        return Promise.all(writers).then(() => { })
+    }
+
+    /** loads, for each package, the json file giving the values of the classes constants */
+    private loadConstantValues(constantValues: { [key: string]: string }): { [key: string]: { [key: string]: { [key: string]: number } } } {
+        if (!constantValues)
+            return null
+
+        let res = {}
+        for (let packageName in constantValues) {
+            let fileName = constantValues[packageName]
+            console.log(`loading constant values of package ${packageName} from ${fileName}`)
+            res[packageName] = JSON.parse(fs.readFileSync(fileName, 'utf8'))
+        }
+        return res
+    }
+
+    /**
+     * Static properties for which a value is known are exported as 'static final' primitives
+     * in a '<Class>Constants' holder class, so that the Java compiler can inline them
+     * instead of reading (and boxing) the javascript property at each use.
+     */
+    private maybeExportConstants(type: PreJavaTypeClassOrInterface, constants: { [key: string]: { [key: string]: { [key: string]: number } } }, baseDirectory: string) {
+        if (!constants || !(type.packageName in constants) || !(type.name in constants[type.packageName]))
+            return
+        if (!type.staticProperties || !type.staticProperties.length)
+            return
+
+        let values = constants[type.packageName][type.name]
+        let constantsType = new PreJavaTypeBuiltinJavaType(type.packageName, `${type.name}Constants`)
+        constantsType.module = type.module
+        let javaWriter = new JavaWriter(constantsType.getPackageName(), constantsType.getSimpleName(null))
+        let flow = new TextFlow()
+
+        flow.startJavaDocComments()
+        flow.push(`Compile-time values of the constants of {@link ${type.name}}`).finishLine()
+        flow.endJavaDocComments()
+        flow.push(`public final class ${constantsType.getSimpleName(null)} {`).finishLine()
+        flow.pushLineStart('    ')
+
+        type.staticProperties
+            .slice()
+            .sort((a, b) => a.name == b.name ? 0 : (a.name < b.name ? -1 : 1))
+            .forEach(property => {
+                if (!(property.name in values)) {
+                    console.log(`no value for constant ${type.name}.${property.name}`)
+                    return
+                }
+
+                let value = values[property.name]
+                if ((value | 0) === value)
+                    flow.push(`public static final int ${typeTools.escapePropertyName(property.name)} = ${value > 0xff ? '0x' + value.toString(16).toUpperCase() : value};`).finishLine()
+                else
+                    flow.push(`public static final double ${typeTools.escapePropertyName(property.name)} = ${value}d;`).finishLine()
+            })
+
+        flow.blankLine()
+        flow.push(`private ${constantsType.getSimpleName(null)}() {`).finishLine()
+        flow.push(`}`).finishLine()
+
+        flow.pullLineStart()
+        flow.push(`}`).finishLine()
+
+        this.exportJavaUnit(constantsType, javaWriter, flow, baseDirectory)
     }
 
     private exportUnionType(type: PreJavaTypeUnion, program: ts.Program, baseDirectory: string) {
@@ -64,10 +343,8 @@ export class ExportPhase {
         flow.push(`Union adapter`).finishLine()
         if (type.sourceTypes && type.sourceTypes.length) {
             type.sourceTypes.forEach(sourceType => {
-                if (sourceType && sourceType.symbol && sourceType.symbol.declarations && sourceType.symbol.declarations.length)
-                    sourceType.symbol.declarations.forEach(declaration => flow.push(`declared in: ${declaration.getSourceFile().fileName}:${declaration.pos}`).finishLine())
-                if (sourceType && sourceType.aliasSymbol && sourceType.aliasSymbol.declarations && sourceType.aliasSymbol.declarations.length)
-                    sourceType.aliasSymbol.declarations.forEach(declaration => flow.push(`aliased in: ${declaration.getSourceFile().fileName}:${declaration.pos}`).finishLine())
+                let description = (sourceType && (sourceType as any as CachedSourceType).description) || tsTools.describeUnionSourceType(sourceType, this.sourceBaseDirectory)
+                description.forEach(line => flow.push(line).finishLine())
             })
         }
         flow.endJavaDocComments()
@@ -93,6 +370,8 @@ export class ExportPhase {
                 this.exportClassLikeUnionMethodOfUnionedType(type, unionedType, javaWriter, flow)
             }
 
+            this.exportUnionTests(type, true, javaWriter, flow)
+
             flow.pullLineStart()
             flow.push(`}`).finishLine()
         }
@@ -107,6 +386,8 @@ export class ExportPhase {
                 this.exportInterfaceLikeUnionMethodOfUnionedType(type, unionedType, javaWriter, flow)
             }
 
+            this.exportUnionTests(type, false, javaWriter, flow)
+
             flow.pullLineStart()
             flow.push(`}`).finishLine()
         }
@@ -184,10 +465,9 @@ export class ExportPhase {
         flow.startJavaDocComments()
         if (type.sourceTypes && type.sourceTypes.size) {
             type.sourceTypes.forEach(sourceType => {
-                flow.push(`source type: ${sourceType.getSymbol() ? program.getTypeChecker().getFullyQualifiedName(sourceType.getSymbol()) : 'no symbol'}`).finishLine()
-                flow.push(`flags: ${ts.TypeFlags[sourceType.flags]} (${sourceType.flags})`).finishLine()
-                if (sourceType && sourceType.symbol && sourceType.symbol && sourceType.symbol.declarations && sourceType.symbol.declarations.length)
-                    sourceType.symbol.declarations.forEach(declaration => flow.push(`declared in: ${declaration.getSourceFile().fileName} at pos ${declaration.pos}`).finishLine())
+                // types loaded from the model cache only have their description, and there is no program
+                let description = (sourceType as any as CachedSourceType).description || tsTools.describeSourceType(sourceType, program.getTypeChecker(), this.sourceBaseDirectory)
+                description.forEach(line => flow.push(line).finishLine())
             })
         }
         if (type.constructorSignatures && type.constructorSignatures.length) {
@@ -218,7 +498,7 @@ export class ExportPhase {
         return javaWriter.importType(tp) + (tp.constraint ? ` extends ${javaWriter.importType(tp.constraint) + tp.constraint.getParametrization(null)}` : '')
     }
 
-    private exportClassOrInterface(type: PreJavaTypeClassOrInterface, program: ts.Program, baseDirectory: string, adding: { [key: string]: { [key: string]: string } }, removing: { [key: string]: { [key: string]: string[] } }) {
+    private exportClassOrInterface(type: PreJavaTypeClassOrInterface, program: ts.Program, baseDirectory: string, adding: { [key: string]: { [key: string]: string } }, removing: { [key: string]: { [key: string]: string[] } }, accessorStyle: AccessorStyle) {
         let javaWriter = new JavaWriter(type.getPackageName(), type.getSimpleName(null))
         let flow = new TextFlow()
 
@@ -251,9 +531,7 @@ export class ExportPhase {
             let method = type.callSignatures[0]
 
             if (method.comments && method.comments.length) {
-                flow.startJavaDocComments()
-                flow.push(method.comments)
-                flow.endJavaDocComments()
+                flow.javaDocComments(method.comments)
             }
 
             this.exportJsFunctionCallMethod(method, javaWriter, flow)
@@ -334,9 +612,7 @@ export class ExportPhase {
 
                     type.constructorSignatures.forEach(constructor => {
                         if (constructor.comments && constructor.comments.length) {
-                            flow.startJavaDocComments()
-                            flow.push(constructor.comments)
-                            flow.endJavaDocComments()
+                            flow.javaDocComments(constructor.comments)
                         }
 
                         let escapedMethodName = type.getSimpleName(null)
@@ -369,6 +645,9 @@ export class ExportPhase {
                 }
             }
 
+            if (isClass && !type.isAnonymousSourceType && type.jsName in TYPED_ARRAY_ELEMENT_TYPES)
+                this.exportTypedArrayPrimitiveMethods(type, TYPED_ARRAY_ELEMENT_TYPES[type.jsName], javaWriter, flow)
+
             let sit = type.stringIndexType
             if (sit) {
                 if (typeTools.hasIndexInTypeHierarchy(type)) {
@@ -394,9 +673,7 @@ export class ExportPhase {
                     }
                     else {
                         if (property.comments && property.comments.length) {
-                            flow.startJavaDocComments()
-                            flow.push(property.comments)
-                            flow.endJavaDocComments()
+                            flow.javaDocComments(property.comments)
                         }
 
                         let escapedPropertyName = typeTools.escapePropertyName(property.name)
@@ -442,7 +719,9 @@ export class ExportPhase {
                             }
                         }
 
-                        this.exportStaticMethod(method, type, javaWriter, flow)
+                        let startLength = flow.length()
+                        this.exportStaticMethod(method, type, removedMethods, javaWriter, flow)
+                        this.recordExpandedMethod(type, method, flow.length() - startLength)
                     })
             }
 
@@ -455,6 +734,7 @@ export class ExportPhase {
                 type.properties
                     .sort((a, b) => a.name == b.name ? 0 : (a.name < b.name ? -1 : 1))
                     .filter(property => !type.staticProperties || !type.staticProperties.some(p => p.name == property.name))
+                    .filter(property => accessorStyle != 'accessors' || !type.methods || !type.methods.some(m => this.isAccessorOf(m, property.name)))
                     .forEach(property => {
                         flow.blankLine()
 
@@ -464,9 +744,7 @@ export class ExportPhase {
                         }
 
                         if (property.comments && property.comments.length) {
-                            flow.startJavaDocComments()
-                            flow.push(property.comments)
-                            flow.endJavaDocComments()
+                            flow.javaDocComments(property.comments)
                         }
 
                         let escapedPropertyName = typeTools.escapePropertyName(property.name)
@@ -515,10 +793,18 @@ export class ExportPhase {
                             }
                         }
 
-                        this.exportClassMethod(method, type, isClass, javaWriter, flow)
+                        if (isClass && accessorStyle == 'fields' && this.isReplacedByField(method, type))
+                            return
+
+                        let startLength = flow.length()
+                        this.exportClassMethod(method, type, isClass, removedMethods, javaWriter, flow)
+                        this.recordExpandedMethod(type, method, flow.length() - startLength)
                     })
             }
 
+            if (type.typedEvents && type.typedEvents.length)
+                this.exportTypedEventListeners(type, isClass, javaWriter, flow)
+
             flow.pullLineStart()
             flow.push(`}`)
             flow.finishLine()
@@ -527,6 +813,143 @@ export class ExportPhase {
         this.exportJavaUnit(type, javaWriter, flow, baseDirectory)
     }
 
+    /**
+     * Exports the class giving the members of a type which are typed, in the type, without
+     * the types of a later module (see Transformers.layerModules) : the accessor of the
+     * later module reads the properties and calls the methods with their declared types.
+     */
+    private exportModuleAccessor(type: PreJavaTypeClassOrInterface, baseDirectory: string) {
+        let javaWriter = new JavaWriter(type.getPackageName(), type.getSimpleName(null))
+        let flow = new TextFlow()
+
+        let accessedType = type.accessedType
+        let self = `${javaWriter.importTypeParametrized(accessedType)} self`
+        let js = javaWriter.importType(this.JS)
+
+        flow.startJavaDocComments()
+        flow.push(`Members of {@link ${javaWriter.importType(accessedType)}} typed with the types of the ${type.module} module`).finishLine()
+        flow.endJavaDocComments()
+        flow.push(`public final class ${type.getSimpleName(null)} {`).finishLine()
+        flow.pushLineStart('    ')
+
+        // erased signatures of the exported methods, the accessors of a property are also given as methods
+        let exportedSignatures = new Set<string>()
+        let exportMethod = (comments: string[], typeParameters: PreJavaTypeParameter[], returnType: PreJavaType, name: string, parameters: PreJavaTypeFormalParameter[], body: string[]) => {
+            let erasedSignature = `${name}(${parameters.map(p => p.type.getFullyQualifiedName(null)).join(',')})`
+            if (exportedSignatures.has(erasedSignature))
+                return
+            exportedSignatures.add(erasedSignature)
+
+            flow.blankLine()
+            if (comments && comments.length)
+                flow.javaDocComments(comments)
+
+            typeParameters = (accessedType.typeParameters || []).concat(typeParameters || [])
+            flow.push(`public static `)
+            if (typeParameters.length)
+                flow.push(`<${typeParameters.map(tp => this.typeParameterString(tp, javaWriter)).join(', ')}> `)
+            flow.push(`${javaWriter.importTypeParametrized(returnType)} ${name}(${[self].concat(parameters.map(p => `${javaWriter.importTypeParametrized(p.type)} ${p.name}`)).join(', ')}) {`).finishLine()
+            flow.pushLineStart('    ')
+            body.forEach(line => flow.push(line).finishLine())
+            flow.pullLineStart()
+            flow.push(`}`).finishLine()
+        }
+
+        let getterBody = (propertyName: string) => [`return ${js}.uncheckedCast(${js}.asPropertyMap(self).get("${propertyName}"));`]
+        let setterBody = (propertyName: string, valueName: string) => [`${js}.asPropertyMap(self).set("${propertyName}", ${valueName});`]
+
+        type.properties
+            .slice()
+            .sort((a, b) => a.name == b.name ? 0 : (a.name < b.name ? -1 : 1))
+            .forEach(property => {
+                let escapedPropertyName = typeTools.escapePropertyName(property.name)
+                let upcaseName = escapedPropertyName.slice(0, 1).toLocaleUpperCase() + escapedPropertyName.slice(1)
+                exportMethod(property.comments, null, property.type, `get${upcaseName}`, [], getterBody(property.name))
+                if (property.writable)
+                    exportMethod(null, null, BuiltIn.BUILTIN_TYPE_UNIT, `set${upcaseName}`, [{ name: 'value', type: property.type, optional: false, dotdotdot: false }], setterBody(property.name, 'value'))
+            })
+
+        let callsMethods = false
+        type.methods
+            .slice()
+            .sort((a, b) => a.name == b.name ? 0 : (a.name < b.name ? -1 : 1))
+            .forEach(method => {
+                let parameters = method.parameters || []
+                if (method.jsPropertyName) {
+                    exportMethod(method.comments, method.typeParameters, method.returnType, method.name, parameters, parameters.length ? setterBody(method.jsPropertyName, parameters[0].name) : getterBody(method.jsPropertyName))
+                    return
+                }
+
+                let call = `jsMethod.call(${['self'].concat(parameters.map(p => p.name)).join(', ')})`
+                exportMethod(method.comments, method.typeParameters, method.returnType, method.name, parameters, [
+                    `NativeFunction jsMethod = ${js}.uncheckedCast(${js}.asPropertyMap(self).get("${method.jsMethodName}"));`,
+                    method.returnType == BuiltIn.BUILTIN_TYPE_UNIT ? `${call};` : `return ${js}.uncheckedCast(${call});`
+                ])
+                callsMethods = true
+            })
+
+        if (callsMethods) {
+            javaWriter.importType(this.JS_TYPE)
+            javaWriter.importType(this.JS_PACKAGE)
+            flow.blankLine()
+            flow.push(`@JsType(isNative=true, namespace=JsPackage.GLOBAL, name="Function")`).finishLine()
+            flow.push(`private static class NativeFunction {`).finishLine()
+            flow.pushLineStart('    ')
+            flow.push(`native Object call(Object self, Object... arguments);`).finishLine()
+            flow.pullLineStart()
+            flow.push(`}`).finishLine()
+        }
+
+        flow.blankLine()
+        flow.push(`private ${type.getSimpleName(null)}() {`).finishLine()
+        flow.push(`}`).finishLine()
+
+        flow.pullLineStart()
+        flow.push(`}`).finishLine()
+
+        this.exportJavaUnit(type, javaWriter, flow, baseDirectory)
+    }
+
+    /**
+     * For each event of the type, an overlay registering a listener of the event type,
+     * returning an action which unregisters it. When the type has listener options, a
+     * second overlay takes them (passive, once, capture, signal).
+     */
+    private exportTypedEventListeners(type: PreJavaTypeClassOrInterface, isClass: boolean, javaWriter: JavaWriter, flow: TextFlow) {
+        flow.blankLine()
+            .push('/*\n    Typed event listeners\n*/').finishLine()
+
+        javaWriter.importType(this.JS_OVERLAY)
+        javaWriter.importType(this.JS)
+        let action = javaWriter.importType(this.ACTION)
+        let action1 = javaWriter.importType(this.ACTION_1)
+        let eventTargetMethods = javaWriter.importType(this.EVENT_TARGET_METHODS)
+
+        let options = type.typedEventOptions ? javaWriter.importTypeParametrized(type.typedEventOptions) : null
+
+        type.typedEvents.forEach(event => {
+            let listenerName = typeTools.getTypedEventListenerName(event.name)
+            let listenerType = `${action1}<${javaWriter.importTypeParametrized(event.type)}>`
+
+            this.exportTypedEventListener(event.name, `${listenerName}(${listenerType} listener)`, 'listener', isClass, action, eventTargetMethods, flow)
+            // the options are given back when unregistering, since the capture flag identifies the listener
+            if (options)
+                this.exportTypedEventListener(event.name, `${listenerName}(${listenerType} listener, ${options} options)`, 'listener, options', isClass, action, eventTargetMethods, flow)
+        })
+    }
+
+    private exportTypedEventListener(eventName: string, signature: string, args: string, isClass: boolean, action: string, eventTargetMethods: string, flow: TextFlow) {
+        flow.push(`@JsOverlay`).finishLine()
+        flow.push(`${isClass ? 'public final ' : 'default '}${action} ${signature} {`).finishLine()
+        flow.pushLineStart('    ')
+        flow.push(`${eventTargetMethods} target = Js.uncheckedCast(this);`).finishLine()
+        flow.push(`target.addEventListener("${eventName}", ${args});`).finishLine()
+        flow.push(`return () -> target.removeEventListener("${eventName}", ${args});`).finishLine()
+        flow.pullLineStart()
+        flow.push(`}`).finishLine()
+        flow.blankLine()
+    }
+
     private getMethodRemovingSignature(method: PreJavaTypeCallSignature, isStatic: boolean) {
         //"static Array of(T)"
         return `${isStatic ? 'static ' : ''}${method.returnType.getSimpleName(null)} ${method.name}(${method.parameters ? method.parameters.map(p => p.type.getSimpleName(null)).join(',') : ''})`
@@ -562,11 +985,21 @@ export class ExportPhase {
         content += '\n'
         content += flow.content()
 
-        let fileDirectory = path.join(baseDirectory, type.getPackageName().replace(new RegExp('\\.', 'g'), '/'))
-        mkdirRec(fileDirectory)
-
-        let fileName = path.join(fileDirectory, `${type.getSimpleName(null)}.java`)
-        fs.writeFileSync(fileName, content, 'utf8')
+        let references = new Set<string>()
+        javaWriter.referencedTypes.forEach(referencedType => {
+            if (referencedType.getPackageName())
+                references.add(referencedType.getFullyQualifiedName(null))
+        })
+
+        this.manifest.types.push(type.getFullyQualifiedName(null))
+        this.units.push({
+            fqn: type.getFullyQualifiedName(null),
+            packageName: type.getPackageName(),
+            simpleName: type.getSimpleName(null),
+            content,
+            references,
+            module: type.module
+        })
     }
 
     /**
@@ -652,6 +1085,96 @@ export class ExportPhase {
         flow.finishLine()
     }
 
+    /**
+     * Exports an isX() test for each unioned type which can be recognized at runtime, and
+     * when all of them can, a match(...) method calling the function of the actual type.
+     *
+     * Primitives are recognized with typeof, functions too. Classes are recognized with
+     * instanceof when they have a javascript constructor. Interfaces are recognized with
+     * instanceof on the deepest class of their hierarchy having one.
+     */
+    private exportUnionTests(unionType: PreJavaTypeUnion, isClass: boolean, javaWriter: JavaWriter, flow: TextFlow) {
+        let tests = unionType.types.map(unionedType => ({ unionedType, test: this.getUnionedTypeTest(unionedType, javaWriter) }))
+
+        tests.filter(t => t.test).forEach(t => {
+            javaWriter.importType(this.JS_OVERLAY)
+
+            flow.push(`@JsOverlay`).finishLine()
+            flow.push(`${isClass ? 'public final ' : 'default '}boolean is${t.unionedType.getHumanizedName(null)}() {`).finishLine()
+            flow.pushLineStart('    ')
+            flow.push(`return ${t.test.expression};`).finishLine()
+            flow.pullLineStart()
+            flow.push(`}`).finishLine()
+            flow.finishLine()
+        })
+
+        // primitive types cannot be type arguments of the match functions
+        if (tests.some(t => !t.test || this.isPrimitive(t.unionedType)))
+            return
+
+        // typeof tests first, then the deepest classes first since an instanceof test also matches subclasses
+        let orderedTests = tests.slice().sort((a, b) => b.test.priority - a.test.priority)
+
+        let resultTypeName = 'R'
+        while (unionType.typeParameters && unionType.typeParameters.some(tp => tp.name == resultTypeName))
+            resultTypeName += 'R'
+
+        let functionName = (t: { unionedType: PreJavaType }) => `on${t.unionedType.getHumanizedName(null)}`
+
+        javaWriter.importType(this.JS_OVERLAY)
+
+        flow.push(`@JsOverlay`).finishLine()
+        flow.push(`${isClass ? 'public final ' : 'default '}<${resultTypeName}> ${resultTypeName} match(${tests.map(t => `java.util.function.Function<? super ${javaWriter.importTypeParametrized(t.unionedType)}, ? extends ${resultTypeName}> ${functionName(t)}`).join(', ')}) {`).finishLine()
+        flow.pushLineStart('    ')
+        orderedTests.forEach(t => {
+            flow.push(`if (${t.test.expression})`).finishLine()
+            flow.pushLineStart('    ').push(`return ${functionName(t)}.apply(Js.uncheckedCast(this));`).finishLine().pullLineStart()
+        })
+        flow.push(`throw new IllegalStateException("the value does not match any type of the union");`).finishLine()
+        flow.pullLineStart()
+        flow.push(`}`).finishLine()
+        flow.finishLine()
+    }
+
+    private isPrimitive(type: PreJavaType) {
+        return type == BuiltIn.BUILTIN_TYPE_PRIMITIVE_DOUBLE || type == BuiltIn.BUILTIN_TYPE_PRIMITIVE_BOOLEAN || type == BuiltIn.BUILTIN_TYPE_INT || type == BuiltIn.BUILTIN_TYPE_UNIT
+    }
+
+    /** java expression testing at runtime that the union value is of the unioned type, null if it cannot be tested */
+    private getUnionedTypeTest(unionedType: PreJavaType, javaWriter: JavaWriter): { expression: string, priority: number } {
+        let typeOfTest = (jsType: string) => ({ expression: `"${jsType}".equals(Js.typeof(this))`, priority: Number.MAX_VALUE })
+
+        if (unionedType == BuiltIn.BUILTIN_TYPE_STRING)
+            return typeOfTest('string')
+        if (unionedType == BuiltIn.BUILTIN_TYPE_NUMBER || unionedType == BuiltIn.BUILTIN_TYPE_INT || unionedType == BuiltIn.BUILTIN_TYPE_PRIMITIVE_DOUBLE)
+            return typeOfTest('number')
+        if (unionedType == BuiltIn.BUILTIN_TYPE_BOOLEAN || unionedType == BuiltIn.BUILTIN_TYPE_PRIMITIVE_BOOLEAN)
+            return typeOfTest('boolean')
+
+        let target = unionedType
+        while (target instanceof PreJavaTypeReference)
+            target = target.type
+        if (!(target instanceof PreJavaTypeClassOrInterface))
+            return null
+
+        if (target.isFunctionalInterface)
+            return typeOfTest('function')
+
+        let hasConstructor = (type: PreJavaTypeClassOrInterface) => type.isClassLike() && type.jsName && type.jsName != 'Object'
+
+        let testedClass: PreJavaTypeClassOrInterface = hasConstructor(target) ? target : null
+        if (!testedClass) {
+            typeTools.browseTypeHierarchy(target, baseType => {
+                if (hasConstructor(baseType) && (!testedClass || baseType.getHierachyDepth() > testedClass.getHierachyDepth()))
+                    testedClass = baseType
+            })
+        }
+        if (!testedClass)
+            return null
+
+        return { expression: `((Object) this) instanceof ${javaWriter.importType(testedClass)}`, priority: testedClass.getHierachyDepth() }
+    }
+
     private exportJsFunctionCallMethod(method: PreJavaTypeCallSignature, javaWriter: JavaWriter, flow: TextFlow) {
         if (method.typeParameters && method.typeParameters.length)
             flow.push(`<${method.typeParameters.map(tp => tp.name).join(', ')}> `)
@@ -694,6 +1217,65 @@ export class ExportPhase {
         flow.push(`}`).finishLine()
     }
 
+    /**
+     * Typed arrays elements are read and written through primitive overlays,
+     * so that loops over them do not box each element.
+     */
+    private exportTypedArrayPrimitiveMethods(type: PreJavaTypeClassOrInterface, elementType: string, javaWriter: JavaWriter, flow: TextFlow) {
+        javaWriter.importType(this.JS_OVERLAY)
+        javaWriter.importType(this.JS)
+
+        let upcasedElementType = elementType.slice(0, 1).toLocaleUpperCase() + elementType.slice(1)
+
+        flow.blankLine()
+            .push('/*\n    Primitive accessors\n*/').finishLine()
+
+        flow.blankLine()
+        flow.push(`@JsOverlay`).finishLine()
+        flow.push(`public final ${elementType} getAt(int index) {`).finishLine()
+        flow.pushLineStart('    ')
+        flow.push(`return Js.as${upcasedElementType}(Js.asArrayLike(this).getAt(index));`).finishLine()
+        flow.pullLineStart()
+        flow.push(`}`).finishLine()
+
+        flow.blankLine()
+        flow.push(`@JsOverlay`).finishLine()
+        flow.push(`public final void setAt(int index, ${elementType} value) {`).finishLine()
+        flow.pushLineStart('    ')
+        flow.push(`Js.asArrayLike(this).setAt(index, ${elementType == 'double' ? 'value' : '(double) value'});`).finishLine()
+        flow.pullLineStart()
+        flow.push(`}`).finishLine()
+
+        // bulk copy is delegated to the native 'set(ArrayLike<Number>, Number)' method, a java array being a javascript array
+        let nativeSetMethod = type.methods && type.methods.find(m => m.name == 'set' && m.parameters && m.parameters.length == 2 && m.parameters[0].type != BuiltIn.BUILTIN_TYPE_NUMBER)
+        if (nativeSetMethod) {
+            let arrayLikeType = javaWriter.importTypeParametrized(nativeSetMethod.parameters[0].type)
+            let offset = nativeSetMethod.parameters[1].type == BuiltIn.BUILTIN_TYPE_INT ? 'offset' : '(double) offset'
+
+            for (let sourceElementType of ['double', 'float', 'int']) {
+                flow.blankLine()
+                flow.push(`@JsOverlay`).finishLine()
+                flow.push(`public final void set(${sourceElementType}[] array, int offset) {`).finishLine()
+                flow.pushLineStart('    ')
+                flow.push(`set(Js.<${arrayLikeType}>uncheckedCast(array), ${offset});`).finishLine()
+                flow.pullLineStart()
+                flow.push(`}`).finishLine()
+            }
+        }
+
+        flow.blankLine()
+        flow.push(`@JsOverlay`).finishLine()
+        flow.push(`public final ${elementType}[] toArray() {`).finishLine()
+        flow.pushLineStart('    ')
+        flow.push(`int length = Js.asArrayLike(this).getLength();`).finishLine()
+        flow.push(`${elementType}[] result = new ${elementType}[length];`).finishLine()
+        flow.push(`for (int i = 0; i < length; i++)`).finishLine()
+        flow.push(`    result[i] = getAt(i);`).finishLine()
+        flow.push(`return result;`).finishLine()
+        flow.pullLineStart()
+        flow.push(`}`).finishLine()
+    }
+
     private exportStringIndexSetterMethod(sit: PreJavaType, isClass: boolean, javaWriter: JavaWriter, flow: TextFlow) {
         javaWriter.importType(this.JS_OVERLAY)
         javaWriter.importType(this.JS)
@@ -727,19 +1309,95 @@ export class ExportPhase {
         flow.push(`}`).finishLine()
     }
 
-    private exportStaticMethod(method: PreJavaTypeCallSignature, type: PreJavaTypeClassOrInterface, javaWriter: JavaWriter, flow: TextFlow) {
+    private isAccessorOf(method: PreJavaTypeCallSignature, propertyName: string) {
+        return !method.jsMethodName && method.jsPropertyName == propertyName
+    }
+
+    /**
+     * The accessors of a property exported as a field are not exported, unless
+     * they implement a method of an interface of the class hierarchy
+     */
+    private isReplacedByField(method: PreJavaTypeCallSignature, type: PreJavaTypeClassOrInterface) {
+        if (!type.properties.some(property => this.isAccessorOf(method, property.name)))
+            return false
+
+        let declaredByInterface = false
+        typeTools.browseTypeHierarchy(type, baseType => {
+            if (!baseType.isClassLike() && baseType.methods && baseType.methods.some(m => m.name == method.name))
+                declaredByInterface = true
+        })
+        return !declaredByInterface
+    }
+
+    private recordExpandedMethod(type: PreJavaTypeClassOrInterface, method: PreJavaTypeCallSignature, nbBytes: number) {
+        if (!method.developedFrom)
+            return
+
+        let key = `${type.getPackageName()}.${type.getSimpleName()}.${method.name}`
+        let entry = this.overloadExpansionReport[key]
+        if (!entry)
+            entry = this.overloadExpansionReport[key] = { nbOverloads: 0, nbBytes: 0 }
+        entry.nbOverloads++
+        entry.nbBytes += nbBytes
+    }
+
+    /** a developed method can be an overlay only if the method it calls is exported */
+    private canExportAsOverlay(method: PreJavaTypeCallSignature, methods: PreJavaTypeCallSignature[], removedMethods: string[]) {
+        if (!method.exportAsOverlay || !method.developedFrom || methods.indexOf(method.developedFrom) < 0)
+            return false
+        return !removedMethods || removedMethods.indexOf(this.getMethodRemovingSignature(method.developedFrom, true)) < 0
+    }
+
+    /**
+     * Exports a developed method as an overlay calling the union typed method,
+     * so that it does not add a native method
+     */
+    private exportOverlayDispatchMethod(method: PreJavaTypeCallSignature, modifiers: string, methodName: string, javaWriter: JavaWriter, flow: TextFlow) {
+        javaWriter.importType(this.JS_OVERLAY)
+
+        flow.push(`@JsOverlay`).finishLine()
+        flow.push(modifiers)
+
+        if (method.typeParameters && method.typeParameters.length)
+            flow.push(`<${method.typeParameters.map(tp => this.typeParameterString(tp, javaWriter)).join(', ')}> `)
+
+        let returnType = javaWriter.importTypeParametrized(method.returnType)
+        flow.push(`${returnType} ${methodName}(`)
+        if (method.parameters)
+            flow.push(method.parameters.map(p => `${javaWriter.importTypeParametrized(p.type)}${p.dotdotdot ? '...' : ''} ${p.name}`).join(', '))
+        flow.push(`) {`).finishLine()
+
+        let args = method.parameters.map((p, index) => {
+            let unionParameter = method.developedFrom.parameters[index]
+            if (unionParameter.type == p.type)
+                return p.name
+            javaWriter.importType(this.JS)
+            return `Js.<${javaWriter.importTypeParametrized(unionParameter.type)}>uncheckedCast(${p.name})`
+        })
+
+        flow.pushLineStart('    ')
+        flow.push(`${method.returnType == BuiltIn.BUILTIN_TYPE_UNIT ? '' : 'return '}${methodName}(${args.join(', ')});`).finishLine()
+        flow.pullLineStart()
+        flow.push(`}`).finishLine()
+    }
+
+    private exportStaticMethod(method: PreJavaTypeCallSignature, type: PreJavaTypeClassOrInterface, removedMethods: string[], javaWriter: JavaWriter, flow: TextFlow) {
         flow.blankLine()
 
         if (method.comments && method.comments.length) {
-            flow.startJavaDocComments()
-            flow.push(method.comments)
-            flow.endJavaDocComments()
+            flow.javaDocComments(method.comments)
         }
 
         let escapedMethodName = method.name
         if (type.methods && type.methods.some(m => m.name == escapedMethodName))
             escapedMethodName = '_' + escapedMethodName
         escapedMethodName = typeTools.escapePropertyName(escapedMethodName)
+
+        if (this.canExportAsOverlay(method, type.staticMethods, removedMethods)) {
+            this.exportOverlayDispatchMethod(method, 'public static ', escapedMethodName, javaWriter, flow)
+            return
+        }
+
         let methodNamespace = type.jsNamespace ? (type.jsNamespace + '.' + type.jsName) : type.jsName
         if (!methodNamespace)
             javaWriter.importType(this.JS_PACKAGE)
@@ -756,11 +1414,14 @@ export class ExportPhase {
         flow.push(`);`).finishLine()
     }
 
-    private exportClassMethod(method: PreJavaTypeCallSignature, type: PreJavaTypeClassOrInterface, isClass: boolean, javaWriter: JavaWriter, flow: TextFlow) {
+    private exportClassMethod(method: PreJavaTypeCallSignature, type: PreJavaTypeClassOrInterface, isClass: boolean, removedMethods: string[], javaWriter: JavaWriter, flow: TextFlow) {
         if (method.comments && method.comments.length) {
-            flow.startJavaDocComments()
-            flow.push(method.comments)
-            flow.endJavaDocComments()
+            flow.javaDocComments(method.comments)
+        }
+
+        if (this.canExportAsOverlay(method, type.methods, removedMethods)) {
+            this.exportOverlayDispatchMethod(method, isClass ? 'public final ' : 'default ', method.name, javaWriter, flow)
+            return
         }
 
         if (method.jsMethodName) {
@@ -12,8 +12,10 @@ export class GatherPhase {
     constructor(private baseJavaPackage: string,
         private defaultJavaPackage: string,
         private javaPackages: { [key: string]: string },
-        private program: ts.Program) {
-        this.typeMap = new TypescriptToJavaTypemap(program, symbol => this.getJavaPackage(symbol), sourceFile => this.getJSPackage(sourceFile))
+        private program: ts.Program,
+        // directory the javaPackages paths and the source paths of the comments are relative to
+        private baseDirectory: string) {
+        this.typeMap = new TypescriptToJavaTypemap(program, symbol => this.getJavaPackage(symbol), sourceFile => this.getJSPackage(sourceFile), baseDirectory)
     }
 
     getTypeMap() {
@@ -94,7 +96,7 @@ export class GatherPhase {
         let symbolDeclaration = symbol.valueDeclaration || (symbol.declarations && symbol.declarations[0])
         let sourceFile = symbolDeclaration.getSourceFile()
 
-        let relative = path.relative(this.program.getCurrentDirectory(), sourceFile.fileName)
+        let relative = path.relative(this.baseDirectory, sourceFile.fileName)
 
         for (let pathPrefix in this.javaPackages) {
             let sourceRelativePath = path.relative(pathPrefix, relative)
@@ -0,0 +1,137 @@
+import * as fs from "fs"
+import * as Visit from './prejavatypes/PreJavaTypeVisit'
+
+import { PreJavaType } from './prejavatypes/PreJavaType'
+
+export interface PhaseMeasure {
+    // phases are nested, their names are joined with '/'
+    name: string
+    durationMs: number
+    heapUsedBefore: number
+    heapUsedAfter: number
+    // result of the phase when it is a simple value (transformers return whether they changed something)
+    result?: boolean | number | string
+}
+
+export interface TypeCounts {
+    total: number
+    classes: number
+    interfaces: number
+    functionalInterfaces: number
+    unions: number
+    tuples: number
+    enums: number
+    others: number
+}
+
+/**
+ * Measures the duration and the heap usage of the generation phases, and counts the
+ * types at some points of the generation. The result can be written as a json report.
+ *
+ * Heap figures are more accurate when node runs with --expose-gc : a garbage collection
+ * is then done before each snapshot.
+ */
+export class Profiler {
+    private measures: PhaseMeasure[] = []
+    private typeCounts: { [key: string]: TypeCounts } = {}
+    private currentPhases: string[] = []
+    private peakHeapUsed = 0
+
+    measure<T>(name: string, work: () => T): T {
+        let measure = this.start(name)
+        try {
+            let result = work()
+            this.end(measure, result)
+            return result
+        }
+        catch (err) {
+            this.end(measure, `error : ${err}`)
+            throw err
+        }
+    }
+
+    measureAsync<T>(name: string, work: () => Promise<T>): Promise<T> {
+        let measure = this.start(name)
+        // the phases started by the asynchronous work are not nested in this one
+        this.currentPhases.pop()
+        return work().then(
+            result => {
+                this.end(measure, undefined, false)
+                return result
+            },
+            err => {
+                this.end(measure, `error : ${err}`, false)
+                throw err
+            })
+    }
+
+    countTypes(name: string, types: Set<PreJavaType>) {
+        let counts: TypeCounts = { total: 0, classes: 0, interfaces: 0, functionalInterfaces: 0, unions: 0, tuples: 0, enums: 0, others: 0 }
+        types.forEach(type => {
+            counts.total++
+            Visit.visitPreJavaType(type, {
+                caseClassOrInterfaceType: type => {
+                    if (type.isFunctionalInterface)
+                        counts.functionalInterfaces++
+                    else if (type.isClassLike())
+                        counts.classes++
+                    else
+                        counts.interfaces++
+                },
+                caseUnion: type => counts.unions++,
+                caseTuple: type => counts.tuples++,
+                caseEnumType: type => counts.enums++,
+                onOther: type => counts.others++
+            })
+        })
+        this.typeCounts[name] = counts
+    }
+
+    save(fileName: string) {
+        let report = {
+            totalDurationMs: this.measures.filter(m => m.name.indexOf('/') < 0).reduce((sum, m) => sum + m.durationMs, 0),
+            peakHeapUsed: this.peakHeapUsed,
+            phases: this.measures,
+            types: this.typeCounts
+        }
+
+        console.log(`writing profiling report to ${fileName}`)
+        fs.writeFileSync(fileName, JSON.stringify(report, null, 2), 'utf8')
+    }
+
+    private start(name: string) {
+        this.currentPhases.push(name)
+        let measure = {
+            name: this.currentPhases.join('/'),
+            durationMs: 0,
+            heapUsedBefore: this.heapUsed(),
+            heapUsedAfter: 0,
+            start: process.hrtime()
+        }
+        // keeps the phases in their starting order
+        this.measures.push(measure)
+        return measure
+    }
+
+    private end(measure: PhaseMeasure & { start: [number, number] }, result: any, popPhase: boolean = true) {
+        let [seconds, nanoseconds] = process.hrtime(measure.start)
+        measure.durationMs = Math.round((seconds * 1e3 + nanoseconds / 1e6) * 1000) / 1000
+        measure.heapUsedAfter = this.heapUsed()
+        delete measure.start
+        if (typeof result == 'boolean' || typeof result == 'number' || typeof result == 'string')
+            measure.result = result
+        if (popPhase)
+            this.currentPhases.pop()
+    }
+
+    private heapUsed() {
+        let gc = (global as any).gc
+        if (gc)
+            gc()
+
+        let heapUsed = process.memoryUsage().heapUsed
+        if (heapUsed > this.peakHeapUsed)
+            this.peakHeapUsed = heapUsed
+        return heapUsed
+    }
+}
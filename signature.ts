@@ -21,16 +21,52 @@ export interface SignatureOptions {
     onlyTypeErasure: boolean
 }
 
+/**
+ * Signatures are structural, computing them walks the anonymous types recursively. The
+ * top level signatures are thus cached, until the type graph changes : the transformers
+ * call invalidateSignatures() after modifying it (typeMap.substituteType does it when
+ * a type has been replaced), which starts a new generation of the caches.
+ */
+let typeGraphGeneration = 1
+
+interface CachedSignature {
+    generation: number
+    signature: string
+}
+
+let typeErasedCallSignatures = new WeakMap<PreJavaTypeCallSignature, CachedSignature>()
+let standardCallSignatures = new WeakMap<PreJavaTypeCallSignature, CachedSignature>()
+let standardTypeSignatures = new WeakMap<PreJavaType, CachedSignature>()
+
+export function invalidateSignatures() {
+    typeGraphGeneration++
+}
+
+/** changes each time the signatures are invalidated, that is each time the type graph changes */
+export function getTypeGraphGeneration() {
+    return typeGraphGeneration
+}
+
+function getCachedSignature<T>(cache: WeakMap<T, CachedSignature>, key: T, compute: () => string) {
+    let cached = cache.get(key)
+    if (cached && cached.generation == typeGraphGeneration)
+        return cached.signature
+
+    let signature = compute()
+    cache.set(key, { generation: typeGraphGeneration, signature })
+    return signature
+}
+
 export function getCallSignatureTypeErasedSignature(signature: PreJavaTypeCallSignature) {
-    return getCallSignatureSignature(signature, null, { onlyTypeErasure: true }, null)
+    return getCachedSignature(typeErasedCallSignatures, signature, () => getCallSignatureSignature(signature, null, { onlyTypeErasure: true }, null))
 }
 
 export function getCallSignatureStandardSignature(signature: PreJavaTypeCallSignature) {
-    return getCallSignatureSignature(signature, null, { onlyTypeErasure: false }, null)
+    return getCachedSignature(standardCallSignatures, signature, () => getCallSignatureSignature(signature, null, { onlyTypeErasure: false }, null))
 }
 
 export function getTypeStandardSignature(type: PreJavaType): string {
-    return getTypeSignature(type, null, { onlyTypeErasure: false }, null)
+    return getCachedSignature(standardTypeSignatures, type, () => getTypeSignature(type, null, { onlyTypeErasure: false }, null))
 }
 
 export function getCallSignatureSignature(signature: PreJavaTypeCallSignature, typeEnvironment: TypeEnvironment, options: SignatureOptions, selfReflect: Map<PreJavaType, string>) {
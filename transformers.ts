@@ -13,18 +13,39 @@ import { PreJavaTypeCallSignature, PreJavaTypeFormalParameter } from './prejavat
 import { PreJavaTypeParameter } from "./prejavatypes/PreJavaTypeParameter";
 
 import { TypescriptToJavaTypemap } from './type-map'
+import { ModuleDefinition, ModuleIncludes } from './modules'
+import { Profiler } from './profiler'
 
 const MAX_NB_DEVELOPPED_METHODS = 10
 
 let currentIdAnonymousTypes = 1
 
+/**
+ * How the methods with union parameters of a package are developed :
+ * - 'develop' : one native overload per combination of the unioned types,
+ * - 'overlay' : same overloads, but as overlays calling the union typed native method,
+ * - 'keepUnion' : no overload, the union typed method only.
+ */
+export interface OverloadExpansionStrategy {
+    mode?: 'develop' | 'overlay' | 'keepUnion'
+    maxOverloadsPerMethod?: number
+    budget?: number
+}
+
+export interface TransformationOptions {
+    renaming: { [key: string]: { [key: string]: string } }
+    primitiveVariants: { [key: string]: { [key: string]: string } }
+    overloadExpansion: { [key: string]: OverloadExpansionStrategy }
+    modules: ModuleDefinition[]
+}
+
 type Transformer = (
     typeMap: TypescriptToJavaTypemap,
     defaultPackageName: string,
-    renaming: { [key: string]: { [key: string]: string } })
+    options: TransformationOptions)
     => boolean
 
-export function applyTransformations(typeMap: TypescriptToJavaTypemap, renaming: { [key: string]: { [key: string]: string } }) {
+export function applyTransformations(typeMap: TypescriptToJavaTypemap, options: TransformationOptions, profiler: Profiler = new Profiler()) {
     console.log(`removing unsupported types`)
 
     let initialTransformers = [
@@ -43,33 +64,42 @@ export function applyTransformations(typeMap: TypescriptToJavaTypemap, renaming:
         addMethodsFromInterfaceHierarchy,
         adjustOverringMethodsReturnType,
         processJsFunctions,
-        developMethodsWithUnionParameters,
+        // the overload expansion budgets are spent once per generation
+        createUnionParametersDeveloper(),
         renameTypes
     ]
 
     let finalTransformers = [
-        ensureAllTypesHaveNameAndPackage
+        keepOverlaysOutOfOverrides,
+        createPrimitiveVariants,
+        addTypedEventListeners,
+        ensureAllTypesHaveNameAndPackage,
+        // needs the final names of the types
+        layerModules
     ]
 
-    let doPass = (transformers: Transformer[]) => {
+    let doPass = (passName: string, transformers: Transformer[]) => profiler.measure(passName, () => {
         let somethingChanged = false
         for (let i = 0; i < transformers.length; i++) {
-            let result = transformers[i](typeMap, this.baseJavaPackage, renaming)
+            let result = profiler.measure(transformers[i].name, () => transformers[i](typeMap, this.baseJavaPackage, options))
             console.log(`transformer ${i} : ${result}`)
-            if (result)
+            if (result) {
+                Signature.invalidateSignatures()
                 somethingChanged = true
+            }
         }
+        profiler.countTypes(passName, typeMap.typeSet())
         return somethingChanged
-    }
+    })
 
     console.log(`initial pass`)
-    doPass(initialTransformers)
+    doPass(`initial pass`, initialTransformers)
 
     let passCounter = 1
     while (true) {
         console.log(`transformation, pass ${passCounter}\n`)
 
-        let somethingChanged = doPass(transformers)
+        let somethingChanged = doPass(`pass ${passCounter}`, transformers)
         if (!somethingChanged)
             break
 
@@ -83,7 +113,7 @@ export function applyTransformations(typeMap: TypescriptToJavaTypemap, renaming:
     }
 
     console.log(`final pass`)
-    doPass(finalTransformers)
+    doPass(`final pass`, finalTransformers)
 
     console.log(`transformation applied`)
 }
@@ -111,24 +141,6 @@ export let removeOverridingProperties: Transformer = function (typeMap: Typescri
     console.log(`removing OverridingProperties`)
 
     let somethingChanged = false
-    let nextObjectId = 1
-    let objectMap = new WeakMap<any, number>()
-    function getObjectId(o) {
-        if (objectMap.has(o))
-            return objectMap.get(o)
-
-        let id = nextObjectId++
-        objectMap.set(o, id)
-        return id
-    }
-    function getTypeFootprint(type: PreJavaType) {
-        Visit.visitPreJavaType<void>(type, {
-            caseReferenceType: type => getTypeFootprint(type.type),
-            caseTPEnvironnement: type => getTypeFootprint(type.type),
-            caseTypeParameter: type => type.name + (type.constraint ? getTypeFootprint(type.constraint) : ''),
-            onOther: type => getObjectId(type)
-        })
-    }
     typeMap.typeSet().forEach(type => {
         Visit.visitPreJavaType(type, {
             caseClassOrInterfaceType: type => {
@@ -164,6 +176,7 @@ export let removeOverridingProperties: Transformer = function (typeMap: Typescri
 
                     type.methods = []
                     methodsByFootprint.forEach(m => type.addMethod(m))
+                    Signature.invalidateSignatures()
                 }
             }
         })
@@ -192,7 +205,7 @@ function developMethodWithUnionParameters(method: PreJavaTypeCallSignature, nbMe
     let nbDups = 1
     for (let ps of possibleParams)
         nbDups *= ps.length
-    if (nbDups == 1 || nbDups > MAX_NB_DEVELOPPED_METHODS)
+    if (nbDups == 1 || nbDups > nbMethodsMax)
         return null
 
     let res: PreJavaTypeCallSignature[] = []
@@ -227,6 +240,15 @@ function developMethodWithUnionParameters(method: PreJavaTypeCallSignature, nbMe
     return res
 }
 
+function getOverloadExpansionStrategy(options: TransformationOptions, packageName: string): OverloadExpansionStrategy {
+    let strategy: OverloadExpansionStrategy = (options.overloadExpansion && options.overloadExpansion[packageName]) || {}
+    return {
+        mode: strategy.mode || 'develop',
+        maxOverloadsPerMethod: strategy.maxOverloadsPerMethod || MAX_NB_DEVELOPPED_METHODS,
+        budget: strategy.budget
+    }
+}
+
 function developMethodWithOptionalParameters(method: PreJavaTypeCallSignature): PreJavaTypeCallSignature[] {
     if (!method.parameters || !method.parameters.length)
         return null
@@ -242,34 +264,67 @@ function developMethodWithOptionalParameters(method: PreJavaTypeCallSignature):
     return res.length ? res : null
 }
 
-export let developMethodsWithUnionParameters: Transformer = function (typeMap: TypescriptToJavaTypemap) {
+function createUnionParametersDeveloper(): Transformer {
+    // package name -> number of methods added by the development of union parameters
+    let nbDevelopedMethodsPerPackage = new Map<string, number>()
+
+    return function developMethodsWithUnionParameters(typeMap: TypescriptToJavaTypemap, defaultPackageName: string, options: TransformationOptions) {
+        return developUnionParameters(typeMap, defaultPackageName, options, nbDevelopedMethodsPerPackage)
+    }
+}
+
+function developUnionParameters(typeMap: TypescriptToJavaTypemap, defaultPackageName: string, options: TransformationOptions, nbDevelopedMethodsPerPackage: Map<string, number>) {
     console.log(`developping methods with union parameters`)
 
-    function developMethods(methodCollection: PreJavaTypeCallSignature[]) {
+    function developMethods(methodCollection: PreJavaTypeCallSignature[], packageName: string, canUseOverlays: boolean) {
         if (!methodCollection)
             return
 
+        let nbMethods = methodCollection.length
         let methodsSignatures = new Set<string>()
         methodCollection && methodCollection.forEach(m => methodsSignatures.add(Signature.getCallSignatureTypeErasedSignature(m)))
-        let maybeAdd = method => {
+        let maybeAdd = (method: PreJavaTypeCallSignature) => {
             let sig = Signature.getCallSignatureTypeErasedSignature(method)
             if (methodsSignatures.has(sig))
-                return
+                return false
             methodsSignatures.add(sig)
             methodCollection.push(method)
             somethingChanged = true
             counter++
+            return true
         }
 
-        methodCollection && methodCollection.forEach(m => {
-            let dups = developMethodWithUnionParameters(m, 5)
-            dups && dups.forEach(dup => maybeAdd(dup))
-        })
+        let strategy = getOverloadExpansionStrategy(options, packageName)
+        if (strategy.mode != 'keepUnion') {
+            methodCollection && methodCollection.forEach(m => {
+                let dups = developMethodWithUnionParameters(m, strategy.maxOverloadsPerMethod)
+                if (!dups)
+                    return
+
+                let nbDeveloped = nbDevelopedMethodsPerPackage.get(packageName) || 0
+                let nbNew = dups.filter(dup => !methodsSignatures.has(Signature.getCallSignatureTypeErasedSignature(dup))).length
+                if (strategy.budget != null && nbDeveloped + nbNew > strategy.budget) {
+                    console.log(`overload expansion budget of package ${packageName} exhausted, keeping union parameters of ${m.name}`)
+                    return
+                }
+
+                dups.forEach(dup => {
+                    dup.developedFrom = m
+                    dup.exportAsOverlay = canUseOverlays && strategy.mode == 'overlay'
+                    if (maybeAdd(dup))
+                        nbDeveloped++
+                })
+                nbDevelopedMethodsPerPackage.set(packageName, nbDeveloped)
+            })
+        }
 
         methodCollection && methodCollection.forEach(m => {
             let dups = developMethodWithOptionalParameters(m)
             dups && dups.forEach(dup => maybeAdd(dup))
         })
+
+        if (methodCollection.length != nbMethods)
+            Signature.invalidateSignatures()
     }
 
     let somethingChanged = false
@@ -280,9 +335,11 @@ export let developMethodsWithUnionParameters: Transformer = function (typeMap: T
                 if (type.isFunctionalInterface)
                     return
 
-                developMethods(type.methods)
-                developMethods(type.staticMethods)
-                developMethods(type.constructorSignatures)
+                let packageName = type.packageName || defaultPackageName
+                developMethods(type.methods, packageName, true)
+                developMethods(type.staticMethods, packageName, true)
+                // constructors cannot be overlays
+                developMethods(type.constructorSignatures, packageName, false)
             }
         })
     }
@@ -438,23 +495,6 @@ function translateMethodWithTypeEnvironment(visitedMethod: PreJavaTypeCallSignat
     return method
 }
 
-class SignatureCache {
-    private cache = new WeakMap<PreJavaTypeCallSignature, string>()
-
-    remove(method: PreJavaTypeCallSignature) {
-        this.cache.delete(method)
-    }
-
-    get(method: PreJavaTypeCallSignature) {
-        if (this.cache.has(method))
-            return this.cache.get(method)
-
-        let result = Signature.getCallSignatureTypeErasedSignature(method)
-        this.cache.set(method, result)
-        return result
-    }
-}
-
 function isSubTypeOf(type: PreJavaType, maybeSuperType: PreJavaType): boolean {
     //console.log(`${type.getFullyQualifiedName(null)} ${maybeSuperType.getFullyQualifiedName(null)}`)
     if (!maybeSuperType || maybeSuperType == BuiltIn.BUILTIN_TYPE_OBJECT)
@@ -483,8 +523,6 @@ function isSubTypeOf(type: PreJavaType, maybeSuperType: PreJavaType): boolean {
 export let adjustOverringMethodsReturnType: Transformer = function (typeMap: TypescriptToJavaTypemap) {
     console.log(`adjusting overriding methods return type`)
 
-    let sigCache = new SignatureCache()
-
     let somethingChanged = false
 
     browseAllTypesWithTopLevelFirst(typeMap, {
@@ -492,12 +530,12 @@ export let adjustOverringMethodsReturnType: Transformer = function (typeMap: Typ
             // for all methods in here, check that return type is at least narrower than overriden methods
             // si le type de la méthode ici n'est pas un sous type du retour de la super-méthode, on remplace par le type de la super méthode
             let methodsSignaturesToCheck = new Map<string, PreJavaTypeCallSignature>()
-            type.methods && type.methods.forEach(m => methodsSignaturesToCheck.set(sigCache.get(m), m))
+            type.methods && type.methods.forEach(m => methodsSignaturesToCheck.set(Signature.getCallSignatureTypeErasedSignature(m), m))
 
             typeTools.browseTypeHierarchy(type, (visitedType, typeVariableEnv) => {
                 visitedType.methods && visitedType.methods.forEach(visitedMethod => {
                     visitedMethod = translateMethodWithTypeEnvironment(visitedMethod, typeVariableEnv)
-                    let visitedMethodSignature = sigCache.get(visitedMethod)
+                    let visitedMethodSignature = Signature.getCallSignatureTypeErasedSignature(visitedMethod)
 
                     if (methodsSignaturesToCheck.has(visitedMethodSignature)) {
                         // no more check to do
@@ -583,12 +621,15 @@ export let addMethodsFromInterfaceHierarchy: Transformer = function (typeMap: Ty
                 }
             })
 
+            let nbMethods = type.methods.length
             for (let info of methodsSignatures.values()) {
                 if (!info.isImplemented) {
                     type.methods.push(info.method)
                     somethingChanged = true
                 }
             }
+            if (type.methods.length != nbMethods)
+                Signature.invalidateSignatures()
         }
     })
 
@@ -811,6 +852,74 @@ function ensureLambdasAndProcsCreated() {
     }
 }
 
+// name -> functional interface whose number parameters and return type are primitive doubles
+let PRIMITIVE_LAMBDAS = new Map<string, PreJavaTypeClassOrInterface>()
+
+function isPrebuiltLambda(type: PreJavaType) {
+    return LAMBDAS.indexOf(type as PreJavaTypeClassOrInterface) >= 0
+        || PROCS.indexOf(type as PreJavaTypeClassOrInterface) >= 0
+        || Array.from(PRIMITIVE_LAMBDAS.values()).indexOf(type as PreJavaTypeClassOrInterface) >= 0
+}
+
+/**
+ * Returns the functional interface specialized for the number parameters and return type of the
+ * method, named after the kinds of its parameters (IntDoubleFunction style) : ObjDoubleObjAction
+ * for (T, number, Array<T>) => void, DoubleToDoubleFunction for (number) => number. The other
+ * parameters and the return type stay type parameters.
+ */
+function getPrimitiveLambda(functionalMethod: PreJavaTypeCallSignature): PreJavaTypeClassOrInterface {
+    let parameters = functionalMethod.parameters || []
+    let returnType = functionalMethod.returnType
+    let isAction = returnType == BuiltIn.BUILTIN_TYPE_UNIT
+
+    let name = parameters.map(p => p.type == BuiltIn.BUILTIN_TYPE_NUMBER ? 'Double' : 'Obj').join('')
+    if (isAction)
+        name += 'Action'
+    else if (returnType == BuiltIn.BUILTIN_TYPE_NUMBER)
+        name += 'ToDoubleFunction'
+    else
+        name += 'Function'
+
+    if (PRIMITIVE_LAMBDAS.has(name))
+        return PRIMITIVE_LAMBDAS.get(name)
+
+    let LAMBDA = new PreJavaTypeClassOrInterface()
+    LAMBDA.setSimpleName(name)
+    LAMBDA.setPackageName('fr.lteconsulting.prebuilt')
+    LAMBDA.isFunctionalInterface = true
+
+    let typeParameters: PreJavaTypeParameter[] = []
+    let lambdaParameters: PreJavaTypeFormalParameter[] = parameters.map((p, j) => {
+        let type: PreJavaType = BuiltIn.BUILTIN_TYPE_PRIMITIVE_DOUBLE
+        if (p.type != BuiltIn.BUILTIN_TYPE_NUMBER) {
+            type = new PreJavaTypeParameter(PARAMETER_NAMES[j])
+            typeParameters.push(type as PreJavaTypeParameter)
+        }
+        return {
+            dotdotdot: false,
+            optional: false,
+            type,
+            name: `p${j + 1}`
+        }
+    })
+
+    let lambdaReturnType: PreJavaType = BuiltIn.BUILTIN_TYPE_UNIT
+    if (returnType == BuiltIn.BUILTIN_TYPE_NUMBER) {
+        lambdaReturnType = BuiltIn.BUILTIN_TYPE_PRIMITIVE_DOUBLE
+    }
+    else if (!isAction) {
+        lambdaReturnType = new PreJavaTypeParameter('R')
+        typeParameters.push(lambdaReturnType as PreJavaTypeParameter)
+    }
+
+    if (typeParameters.length)
+        LAMBDA.setTypeParameters(typeParameters)
+    LAMBDA.callSignatures.push(new PreJavaTypeCallSignature(null, null, null, lambdaReturnType, null, lambdaParameters))
+
+    PRIMITIVE_LAMBDAS.set(name, LAMBDA)
+    return LAMBDA
+}
+
 export let replaceByFunctionAndProcsLambdaTypes: Transformer = function (typeMap: TypescriptToJavaTypemap) {
     console.log(`replacing anonymous types`)
 
@@ -825,12 +934,12 @@ export let replaceByFunctionAndProcsLambdaTypes: Transformer = function (typeMap
                 // the ref should be replaced because it will miss the LAMBDA or PROC type parameters
                 if (type.type instanceof PreJavaTypeReference
                     && type.type.type instanceof PreJavaTypeClassOrInterface
-                    && (LAMBDAS.indexOf(type.type.type) >= 0 || PROCS.indexOf(type.type.type) >= 0))
+                    && isPrebuiltLambda(type.type.type))
                     return type.type
                 return type
             },
             caseClassOrInterfaceType: type => {
-                if (PROCS.indexOf(type) >= 0 || LAMBDAS.indexOf(type) >= 0)
+                if (isPrebuiltLambda(type))
                     return type
 
                 if (type.callSignatures
@@ -843,7 +952,25 @@ export let replaceByFunctionAndProcsLambdaTypes: Transformer = function (typeMap
                         let returnType = functionalMethod.returnType
                         let nbParameters = functionalMethod.parameters && functionalMethod.parameters.length
 
-                        if (returnType == BuiltIn.BUILTIN_TYPE_UNIT) {
+                        // numbers are passed as primitive doubles, so that calling the lambda does not box them
+                        let usesNumbers = returnType == BuiltIn.BUILTIN_TYPE_NUMBER
+                            || (functionalMethod.parameters && functionalMethod.parameters.some(p => p.type == BuiltIn.BUILTIN_TYPE_NUMBER))
+                        if (usesNumbers) {
+                            let lambda = getPrimitiveLambda(functionalMethod)
+                            typeMap.registerType(`prebuilt-${lambda.getSimpleName(null)}`, lambda)
+
+                            let refTypeParameters = []
+                            for (let i = 0; i < nbParameters; i++)
+                                if (functionalMethod.parameters[i].type != BuiltIn.BUILTIN_TYPE_NUMBER)
+                                    refTypeParameters.push(functionalMethod.parameters[i].type)
+                            if (returnType != BuiltIn.BUILTIN_TYPE_UNIT && returnType != BuiltIn.BUILTIN_TYPE_NUMBER)
+                                refTypeParameters.push(returnType)
+
+                            if (!refTypeParameters.length)
+                                return lambda
+                            return new PreJavaTypeReference(lambda, refTypeParameters)
+                        }
+                        else if (returnType == BuiltIn.BUILTIN_TYPE_UNIT) {
                             typeMap.registerType(`prebuilt-action-${nbParameters}`, PROCS[nbParameters])
 
                             let refTypeParameters = []
@@ -872,7 +999,165 @@ export let replaceByFunctionAndProcsLambdaTypes: Transformer = function (typeMap
     })
 }
 
-export let renameTypes: Transformer = function (typeMap: TypescriptToJavaTypemap, baseJavaPackage: string, renaming: { [key: string]: { [key: string]: string } }) {
+/**
+ * A JsOverlay method can neither override nor be overridden. A developed overload
+ * is thus exported as an overlay only if no other type of its hierarchy (superclass,
+ * implemented interface or subtype) has a method with the same erased signature,
+ * otherwise it is exported as a native method. This happens with the overloads
+ * copied from the interfaces into the classes implementing them (addEventListener
+ * of EventTarget, GlobalEventHandlers and Document...).
+ */
+export let keepOverlaysOutOfOverrides: Transformer = function (typeMap: TypescriptToJavaTypemap) {
+    console.log(`keeping overlays out of overriding methods`)
+
+    let instanceSignatures = (type: PreJavaTypeClassOrInterface) => new Set<string>(type.methods.map(m => Signature.getCallSignatureTypeErasedSignature(m)))
+
+    // signatures which are declared by another type of the hierarchy
+    let overriddenSignatures = new Map<PreJavaTypeClassOrInterface, Set<string>>()
+    let markOverridden = (type: PreJavaTypeClassOrInterface, signature: string) => {
+        if (!overriddenSignatures.has(type))
+            overriddenSignatures.set(type, new Set<string>())
+        overriddenSignatures.get(type).add(signature)
+    }
+
+    typeMap.typeSet().forEach(type => {
+        if (!(type instanceof PreJavaTypeClassOrInterface) || type.isFunctionalInterface || !type.methods.length)
+            return
+
+        let signatures = instanceSignatures(type)
+        typeTools.browseTypeHierarchy(type, ancestor => {
+            if (ancestor == type)
+                return
+            instanceSignatures(ancestor).forEach(signature => {
+                if (!signatures.has(signature))
+                    return
+                markOverridden(type, signature)
+                markOverridden(ancestor, signature)
+            })
+        })
+    })
+
+    let somethingChanged = false
+    overriddenSignatures.forEach((signatures, type) => type.methods.forEach(method => {
+        if (method.exportAsOverlay && signatures.has(Signature.getCallSignatureTypeErasedSignature(method))) {
+            method.exportAsOverlay = false
+            somethingChanged = true
+        }
+    }))
+
+    return somethingChanged
+}
+
+let EVENT_TARGET_METHODS: PreJavaTypeClassOrInterface = null
+
+/** native view of any event target, used by the typed listener registrations */
+function ensureEventTargetMethodsCreated() {
+    if (EVENT_TARGET_METHODS)
+        return
+
+    EVENT_TARGET_METHODS = new PreJavaTypeClassOrInterface()
+    EVENT_TARGET_METHODS.setSimpleName('EventTargetMethods')
+    EVENT_TARGET_METHODS.setPackageName('fr.lteconsulting.prebuilt')
+    EVENT_TARGET_METHODS.isClass = false
+    EVENT_TARGET_METHODS.isFunctionalInterface = false
+
+    for (let methodName of ['addEventListener', 'removeEventListener']) {
+        let parameters: PreJavaTypeFormalParameter[] = [
+            { name: 'type', type: BuiltIn.BUILTIN_TYPE_STRING, optional: false, dotdotdot: false },
+            { name: 'listener', type: BuiltIn.BUILTIN_TYPE_OBJECT, optional: false, dotdotdot: false }
+        ]
+        EVENT_TARGET_METHODS.methods.push(new PreJavaTypeCallSignature(methodName, null, null, BuiltIn.BUILTIN_TYPE_UNIT, methodName, parameters))
+
+        // options is either the useCapture boolean or an (Add)EventListenerOptions object
+        let parametersWithOptions = parameters.concat([{ name: 'options', type: BuiltIn.BUILTIN_TYPE_OBJECT, optional: false, dotdotdot: false }])
+        EVENT_TARGET_METHODS.methods.push(new PreJavaTypeCallSignature(methodName, null, null, BuiltIn.BUILTIN_TYPE_UNIT, methodName, parametersWithOptions))
+    }
+}
+
+/**
+ * Gives the types having an addEventListener method and an event map (HTMLElement and
+ * HTMLElementEventMap, WebSocket and WebSocketEventMap...) the events of the map, which
+ * are exported as typed listener registrations : onClick(Action1<MouseEvent>).
+ *
+ * A type gets only the events which are not already registrable on one of its ancestors,
+ * since the registrations of the ancestors are inherited.
+ *
+ * When the typings declare AddEventListenerOptions, the registrations also accept
+ * listener options (passive, once, capture, signal).
+ */
+export let addTypedEventListeners: Transformer = function (typeMap: TypescriptToJavaTypemap) {
+    console.log(`adding typed event listeners`)
+
+    let types = typeMap.typeSet()
+
+    let eventMaps = new Map<string, PreJavaTypeClassOrInterface>()
+    let listenerOptions: PreJavaTypeClassOrInterface = null
+    types.forEach(type => {
+        if (!(type instanceof PreJavaTypeClassOrInterface) || !type.getSimpleName(null))
+            return
+        if (type.getSimpleName(null).endsWith('EventMap'))
+            eventMaps.set(type.getSimpleName(null), type)
+        else if (type.getSimpleName(null) == 'AddEventListenerOptions' && !type.isFunctionalInterface)
+            listenerOptions = type
+    })
+
+    let hasAddEventListener = (type: PreJavaTypeClassOrInterface) => {
+        let res = false
+        typeTools.browseTypeHierarchy(type, t => res = res || t.methods.some(m => m.name == 'addEventListener'), null, true)
+        return res
+    }
+
+    let eventsOfType = new Map<PreJavaTypeClassOrInterface, PreJavaTypeProperty[]>()
+    types.forEach(type => {
+        if (!(type instanceof PreJavaTypeClassOrInterface) || type.isFunctionalInterface || !type.getSimpleName(null))
+            return
+
+        let eventMap = eventMaps.get(`${type.getSimpleName(null)}EventMap`)
+        if (!eventMap || !hasAddEventListener(type))
+            return
+
+        // the events of the map and of the maps it extends, the first declaration wins
+        let events: PreJavaTypeProperty[] = []
+        let eventNames = new Set<string>()
+        typeTools.browseTypeHierarchy(eventMap, map => map.properties.forEach(property => {
+            if (eventNames.has(property.name))
+                return
+            eventNames.add(property.name)
+            events.push({ name: property.name, type: property.type })
+        }), null, true)
+
+        eventsOfType.set(type, events)
+    })
+
+    let somethingChanged = false
+    eventsOfType.forEach((events, type) => {
+        let inheritedEventNames = new Set<string>()
+        typeTools.browseTypeHierarchy(type, ancestor => {
+            if (eventsOfType.has(ancestor))
+                eventsOfType.get(ancestor).forEach(event => inheritedEventNames.add(event.name))
+        })
+
+        let methodNames = new Set<string>(type.methods.map(m => m.name))
+        type.typedEvents = events.filter(event => !inheritedEventNames.has(event.name) && !methodNames.has(typeTools.getTypedEventListenerName(event.name)))
+        if (type.typedEvents.length) {
+            type.typedEventOptions = listenerOptions
+            somethingChanged = true
+        }
+    })
+
+    if (somethingChanged) {
+        ensureLambdasAndProcsCreated()
+        ensureEventTargetMethodsCreated()
+        typeMap.registerType(`prebuilt-action-0`, PROCS[0])
+        typeMap.registerType(`prebuilt-action-1`, PROCS[1])
+        typeMap.registerType(`prebuilt-event-target-methods`, EVENT_TARGET_METHODS)
+    }
+
+    return somethingChanged
+}
+
+export let renameTypes: Transformer = function (typeMap: TypescriptToJavaTypemap, baseJavaPackage: string, options: TransformationOptions) {
+    let renaming = options.renaming
     if (!renaming)
         return false
 
@@ -901,6 +1186,340 @@ export let renameTypes: Transformer = function (typeMap: TypescriptToJavaTypemap
     return somethingChanged
 }
 
+function toPrimitiveType(type: PreJavaType): PreJavaType {
+    if (type == BuiltIn.BUILTIN_TYPE_NUMBER)
+        return BuiltIn.BUILTIN_TYPE_PRIMITIVE_DOUBLE
+    if (type == BuiltIn.BUILTIN_TYPE_BOOLEAN)
+        return BuiltIn.BUILTIN_TYPE_PRIMITIVE_BOOLEAN
+    return type
+}
+
+function toPrimitiveMethod(method: PreJavaTypeCallSignature): PreJavaTypeCallSignature {
+    let res = new PreJavaTypeCallSignature(
+        method.jsMethodName,
+        method.jsPropertyName,
+        method.typeParameters,
+        toPrimitiveType(method.returnType),
+        method.name,
+        method.parameters && method.parameters.map(p => ({
+            name: p.name,
+            type: toPrimitiveType(p.type),
+            optional: p.optional,
+            dotdotdot: p.dotdotdot
+        })))
+    res.addComments(method.comments)
+    return res
+}
+
+/**
+ * For the types listed in the 'primitiveVariants' configuration, creates a sibling
+ * native type bound to the same javascript prototype, in which Number and Boolean
+ * are replaced by double and boolean. Calls through the variant do not box their
+ * arguments, which matters for APIs called in tight loops (WebGL for instance).
+ *
+ * Must run after all the other transformations, so that the variant gets the
+ * definitive set of methods.
+ */
+export let createPrimitiveVariants: Transformer = function (typeMap: TypescriptToJavaTypemap, baseJavaPackage: string, options: TransformationOptions) {
+    let primitiveVariants = options.primitiveVariants
+    if (!primitiveVariants)
+        return false
+
+    console.log(`creating primitive variants specified in configuration`)
+
+    let somethingChanged = false
+    for (let type of typeMap.typeSet()) {
+        Visit.visitPreJavaType(type, {
+            caseClassOrInterfaceType: type => {
+                if (!(type.packageName in primitiveVariants && type.name in primitiveVariants[type.packageName]))
+                    return
+
+                let variantName = primitiveVariants[type.packageName][type.name]
+                console.log(`creating primitive variant ${variantName} of ${type.name}`)
+
+                let variant = new PreJavaTypeClassOrInterface()
+                variant.isAnonymousSourceType = false
+                variant.isClass = true
+                variant.name = variantName
+                variant.packageName = type.packageName
+                variant.jsNamespace = type.jsNamespace
+                variant.jsName = type.jsName || type.name
+                variant.typeParameters = type.typeParameters
+                variant.comments = [`Variant of {@link ${type.name}} with primitive signatures, obtained by casting an instance of ${type.name}.`]
+
+                type.properties && type.properties.forEach(p => variant.properties.push({
+                    name: p.name,
+                    type: toPrimitiveType(p.type),
+                    writable: p.writable,
+                    comments: p.comments
+                }))
+                type.methods && type.methods.forEach(m => variant.addMethod(toPrimitiveMethod(m)))
+
+                typeMap.registerType(`primitive-variant-${type.packageName}.${type.name}`, variant)
+                somethingChanged = true
+            }
+        })
+    }
+
+    return somethingChanged
+}
+
+/**
+ * Chooses the module of each type when the configuration has modules. A module only uses
+ * the types of the modules listed before it, without the types of a feature module being
+ * moved into the core one because a core type uses them (Window.indexedDB, Document.createElementNS...) :
+ * - a type goes into the module including it. A type no module includes goes into the first
+ *   module of the types using it, or into the catch-all module when no type uses it,
+ * - a supertype coming after its subtype is moved into the module of the subtype,
+ * - a member using the types of a later module is typed with the nearest supertype of its
+ *   own module (Object if there is none). The member is typed as declared by an accessor
+ *   class of the later module : WindowBrowserStorage.getIndexedDB(window).
+ *
+ * The module partition of the export phase (see ModulePartition) starts from these modules.
+ */
+export let layerModules: Transformer = function (typeMap: TypescriptToJavaTypemap, baseJavaPackage: string, options: TransformationOptions) {
+    let modules = options.modules
+    if (!modules || !modules.length)
+        return false
+
+    console.log(`layering the types into modules`)
+
+    let includes = new ModuleIncludes(modules)
+    let types = Array.from(typeMap.typeSet())
+    let typeSet = new Set<PreJavaType>(types)
+
+    let moduleOf = new Map<PreJavaType, number>()
+    let followsUsers = new Set<PreJavaType>()
+    types.forEach(type => {
+        let moduleIndex = includes.getIncludingModule(type.getSimpleName(null))
+        if (moduleIndex >= 0)
+            moduleOf.set(type, moduleIndex)
+        else
+            followsUsers.add(type)
+    })
+
+    let references = new Map<PreJavaType, PreJavaType[]>()
+    let baseTypes = new Map<PreJavaType, Set<PreJavaType>>()
+    types.forEach(type => {
+        references.set(type, Array.from(typeMap.getDirectReferences(type)).filter(reference => typeSet.has(reference)))
+        baseTypes.set(type, new Set<PreJavaType>())
+        if (type instanceof PreJavaTypeClassOrInterface && type.baseTypes)
+            type.baseTypes.forEach(baseType => baseTypes.get(type).add(typeTools.skipReferencingTypes(baseType)))
+    })
+
+    // the modules only decrease, which ends the propagation
+    let propagate = () => {
+        let somethingMoved = true
+        while (somethingMoved) {
+            somethingMoved = false
+            types.forEach(type => {
+                let moduleIndex = moduleOf.get(type)
+                if (moduleIndex === undefined)
+                    return
+
+                references.get(type).forEach(reference => {
+                    if (!followsUsers.has(reference) && !baseTypes.get(type).has(reference))
+                        return
+
+                    let referenceModuleIndex = moduleOf.get(reference)
+                    if (referenceModuleIndex !== undefined && referenceModuleIndex <= moduleIndex)
+                        return
+
+                    moduleOf.set(reference, moduleIndex)
+                    somethingMoved = true
+                })
+            })
+        }
+    }
+
+    propagate()
+    types.forEach(type => {
+        if (!moduleOf.has(type))
+            moduleOf.set(type, includes.getCatchAllModule())
+    })
+    propagate()
+
+    // module of the latest unit a type is made of, -1 if there is none
+    let latestModuleOf = (type: PreJavaType): number => Visit.visitPreJavaType(type, {
+        caseReferenceType: type => Math.max(latestModuleOf(type.type), ...(type.typeParameters || []).map(latestModuleOf)),
+        caseTPEnvironnement: type => latestModuleOf(type.type),
+        onOther: type => moduleOf.has(type) ? moduleOf.get(type) : -1
+    })
+
+    let nearestSupertype = (type: PreJavaType, moduleIndex: number): PreJavaType => {
+        let visited = new Set<PreJavaType>()
+        let queue = Array.from(baseTypes.get(type) || [])
+        while (queue.length) {
+            let baseType = queue.shift()
+            if (!(baseType instanceof PreJavaTypeClassOrInterface) || visited.has(baseType))
+                continue
+            visited.add(baseType)
+
+            // the type environment of the generic supertypes is not known here
+            if (moduleOf.get(baseType) <= moduleIndex && !(baseType.typeParameters && baseType.typeParameters.length))
+                return baseType
+
+            baseType.baseTypes && baseType.baseTypes.forEach(t => queue.push(typeTools.skipReferencingTypes(t)))
+        }
+        return BuiltIn.BUILTIN_TYPE_OBJECT
+    }
+
+    let retype = (type: PreJavaType, moduleIndex: number): PreJavaType => {
+        if (latestModuleOf(type) <= moduleIndex)
+            return type
+
+        return Visit.visitPreJavaType(type, {
+            caseReferenceType: type => moduleOf.get(type.type) > moduleIndex ?
+                nearestSupertype(type.type, moduleIndex) :
+                new PreJavaTypeReference(type.type, type.typeParameters.map(typeParameter => retype(typeParameter, moduleIndex))),
+            caseClassOrInterfaceType: type => nearestSupertype(type, moduleIndex),
+            onOther: type => BuiltIn.BUILTIN_TYPE_OBJECT
+        })
+    }
+
+    let retypeSignature = (signature: PreJavaTypeCallSignature, moduleIndex: number) => {
+        let retyped = new PreJavaTypeCallSignature(
+            signature.jsMethodName,
+            signature.jsPropertyName,
+            signature.typeParameters,
+            retype(signature.returnType, moduleIndex),
+            signature.name,
+            signature.parameters && signature.parameters.map(parameter => ({
+                name: parameter.name,
+                type: retype(parameter.type, moduleIndex),
+                optional: parameter.optional,
+                dotdotdot: parameter.dotdotdot
+            })))
+        retyped.comments = signature.comments && signature.comments.slice()
+        retyped.developedFrom = signature.developedFrom
+        retyped.exportAsOverlay = signature.exportAsOverlay
+        return retyped
+    }
+
+    let signatureModule = (signature: PreJavaTypeCallSignature) => Math.max(latestModuleOf(signature.returnType), ...(signature.parameters || []).map(parameter => latestModuleOf(parameter.type)))
+
+    let accessors = new Map<string, PreJavaTypeClassOrInterface>()
+    let getAccessor = (type: PreJavaTypeClassOrInterface, moduleIndex: number) => {
+        let key = `${type.getFullyQualifiedName(null)}-${moduleIndex}`
+        if (!accessors.has(key)) {
+            let accessor = new PreJavaTypeClassOrInterface()
+            accessor.isAnonymousSourceType = false
+            accessor.isClass = true
+            accessor.isFunctionalInterface = false
+            accessor.name = type.name + modules[moduleIndex].name.split(/[^A-Za-z0-9]+/).map(part => part.slice(0, 1).toUpperCase() + part.slice(1)).join('')
+            accessor.packageName = type.packageName
+            accessor.accessedType = type
+            accessor.module = modules[moduleIndex].name
+            accessors.set(key, accessor)
+            typeMap.registerType(`module-accessor-${key}`, accessor)
+        }
+        return accessors.get(key)
+    }
+
+    let retypedComment = (accessor: PreJavaTypeClassOrInterface) => `typed as declared by ${accessor.name} in the ${accessor.module} module`
+
+    // members of the types as declared, the retyping replaces them
+    let declaredMembers = new Map<PreJavaType, { properties: PreJavaTypeProperty[], methods: PreJavaTypeCallSignature[] }>()
+    types.forEach(type => {
+        if (type instanceof PreJavaTypeClassOrInterface)
+            declaredMembers.set(type, { properties: type.properties, methods: type.methods })
+    })
+
+    let somethingChanged = false
+    types.forEach(type => {
+        let moduleIndex = moduleOf.get(type)
+        type.module = modules[moduleIndex].name
+
+        Visit.visitPreJavaType(type, {
+            caseClassOrInterfaceType: type => {
+                let hasAccessors = !type.isFunctionalInterface && type.name != null
+
+                // the members copied from the ancestors (see addMethodsFromInterfaceHierarchy) are typed by the accessors of the ancestors
+                let inheritedProperties = new Set<string>()
+                let inheritedMethods = new Set<string>()
+                typeTools.browseTypeHierarchy(type, ancestor => {
+                    let ancestorMembers = declaredMembers.get(ancestor) || ancestor
+                    ancestorMembers.properties && ancestorMembers.properties.forEach(property => {
+                        if (latestModuleOf(property.type) > moduleIndex)
+                            inheritedProperties.add(property.name)
+                    })
+                    ancestorMembers.methods && ancestorMembers.methods.forEach(method => {
+                        if (signatureModule(method) > moduleIndex)
+                            inheritedMethods.add(`${method.name}/${method.parameters ? method.parameters.length : 0}`)
+                    })
+                })
+
+                let retypeProperty = (property: PreJavaTypeProperty, withAccessor: boolean): PreJavaTypeProperty => {
+                    let propertyModuleIndex = latestModuleOf(property.type)
+                    if (propertyModuleIndex <= moduleIndex)
+                        return property
+
+                    somethingChanged = true
+                    let comments = property.comments ? property.comments.slice() : []
+                    if (withAccessor && property.name.indexOf('@') < 0 && !inheritedProperties.has(property.name)) {
+                        let accessor = getAccessor(type, propertyModuleIndex)
+                        accessor.properties.push(property)
+                        comments.push(retypedComment(accessor))
+                    }
+                    return { name: property.name, type: retype(property.type, moduleIndex), writable: property.writable, comments }
+                }
+
+                let retypeMethod = (method: PreJavaTypeCallSignature, withAccessor: boolean): PreJavaTypeCallSignature => {
+                    let methodModuleIndex = signatureModule(method)
+                    if (methodModuleIndex <= moduleIndex)
+                        return method
+
+                    somethingChanged = true
+                    let retyped = retypeSignature(method, moduleIndex)
+                    let name = method.jsMethodName || method.jsPropertyName
+                    let isInherited = inheritedMethods.has(`${method.name}/${method.parameters ? method.parameters.length : 0}`)
+                    if (withAccessor && name && name.indexOf('@') < 0 && !isInherited && !(method.parameters && method.parameters.some(parameter => parameter.dotdotdot))) {
+                        let accessor = getAccessor(type, methodModuleIndex)
+                        accessor.methods.push(method)
+                        retyped.addComments(retypedComment(accessor))
+                    }
+                    return retyped
+                }
+
+                type.properties = type.properties && type.properties.map(property => retypeProperty(property, hasAccessors))
+                type.methods = type.methods && type.methods.map(method => retypeMethod(method, hasAccessors))
+                type.staticProperties = type.staticProperties && type.staticProperties.map(property => retypeProperty(property, false))
+                type.staticMethods = type.staticMethods && type.staticMethods.map(method => retypeMethod(method, false))
+                type.constructorSignatures = type.constructorSignatures && type.constructorSignatures.map(signature => retypeMethod(signature, false))
+                type.callSignatures = type.callSignatures && type.callSignatures.map(signature => retypeMethod(signature, false))
+                type.typedEvents = type.typedEvents && type.typedEvents.map(event => retypeProperty(event, false))
+
+                let retypeOther = (other: PreJavaType) => {
+                    if (latestModuleOf(other) <= moduleIndex)
+                        return other
+                    somethingChanged = true
+                    return retype(other, moduleIndex)
+                }
+                type.numberIndexType = retypeOther(type.numberIndexType)
+                type.stringIndexType = retypeOther(type.stringIndexType)
+                type.typedEventOptions = retypeOther(type.typedEventOptions)
+            },
+            caseUnion: type => {
+                if (!type.types.some(unionedType => latestModuleOf(unionedType) > moduleIndex))
+                    return
+
+                type.setTypes(type.types.map(unionedType => retype(unionedType, moduleIndex)))
+                somethingChanged = true
+            }
+        })
+    })
+
+    if (somethingChanged) {
+        // the classes implement the retyped methods of their interfaces
+        Signature.invalidateSignatures()
+        addMethodsFromInterfaceHierarchy(typeMap, baseJavaPackage, options)
+    }
+
+    accessors.forEach(accessor => console.log(`${accessor.accessedType.name} members typed in module ${accessor.module} by ${accessor.name}`))
+
+    return somethingChanged
+}
+
 let processJsFunctions: Transformer = function (typeMap: TypescriptToJavaTypemap) {
     console.log(`process JsFunctions`)
 
@@ -1,4 +1,5 @@
 import * as ts from 'typescript'
+import * as path from 'path'
 
 export function guessName(identifier: ts.Identifier | ts.BindingPattern): string {
     if (!identifier)
@@ -189,4 +190,34 @@ function fetchUsedFreeTypeParametersInternal(type: ts.Type, usedTypeParameters:
         // TODO StructuredType IndexedAccess, maybe little more...
         //console.log(`IGNORED TYPE IN TYPEPARAMETER RESEARCH !`)
     }
-}
\ No newline at end of file
+}
+
+/**
+ * path of a source file relative to the base directory of its configuration, so that
+ * the generated comments do not depend on the working directory or the batch mode
+ */
+export function getSourcePath(sourceFile: ts.SourceFile, baseDirectory: string): string {
+    if (!baseDirectory)
+        return sourceFile.fileName
+    return path.relative(baseDirectory, sourceFile.fileName).replace(/\\/g, '/')
+}
+
+/** lines describing where a type comes from, as written in the generated comments */
+export function describeSourceType(sourceType: ts.Type, typeChecker: ts.TypeChecker, baseDirectory: string): string[] {
+    let res = []
+    res.push(`source type: ${sourceType.getSymbol() ? typeChecker.getFullyQualifiedName(sourceType.getSymbol()) : 'no symbol'}`)
+    res.push(`flags: ${ts.TypeFlags[sourceType.flags]} (${sourceType.flags})`)
+    if (sourceType.symbol && sourceType.symbol.declarations && sourceType.symbol.declarations.length)
+        sourceType.symbol.declarations.forEach(declaration => res.push(`declared in: ${getSourcePath(declaration.getSourceFile(), baseDirectory)} at pos ${declaration.pos}`))
+    return res
+}
+
+/** lines describing where a union type comes from, as written in the generated comments */
+export function describeUnionSourceType(sourceType: ts.Type, baseDirectory: string): string[] {
+    let res = []
+    if (sourceType && sourceType.symbol && sourceType.symbol.declarations && sourceType.symbol.declarations.length)
+        sourceType.symbol.declarations.forEach(declaration => res.push(`declared in: ${getSourcePath(declaration.getSourceFile(), baseDirectory)}:${declaration.pos}`))
+    if (sourceType && sourceType.aliasSymbol && sourceType.aliasSymbol.declarations && sourceType.aliasSymbol.declarations.length)
+        sourceType.aliasSymbol.declarations.forEach(declaration => res.push(`aliased in: ${getSourcePath(declaration.getSourceFile(), baseDirectory)}:${declaration.pos}`))
+    return res
+}
@@ -3,6 +3,7 @@ import * as tsTools from './ts-tools'
 import * as typeTools from './type-tools'
 import * as BuiltIn from './builtin-types'
 import * as Visit from './prejavatypes/PreJavaTypeVisit'
+import * as Signature from './signature'
 
 import { PreJavaType, TypeReplacer, ProcessContext } from './prejavatypes/PreJavaType'
 import { PreJavaTypeReference, PreJavaTypeTPEnvironnement } from './prejavatypes/PreJavaTypeReference'
@@ -16,6 +17,14 @@ import { PreJavaTypeCallSignature, PreJavaTypeFormalParameter } from './prejavat
 export class TypescriptToJavaTypemap {
     private currentIdAnonymousTypes = 1
     private typeMap = new Map<any, PreJavaType>()
+
+    // index of the users of each type, see substituteType
+    private registeredTypes: Set<PreJavaType> = null
+    // registered type -> types it is made of, up to the other registered types
+    private directReferences: Map<PreJavaType, Set<PreJavaType>> = null
+    // type -> registered types made of it
+    private users: Map<PreJavaType, Set<PreJavaType>> = null
+    private usersIndexGeneration = 0
     // maps js package names to global element holder java classes
     private globalClasses = new Map<string, PreJavaTypeClassOrInterface>()
 
@@ -24,12 +33,15 @@ export class TypescriptToJavaTypemap {
         getJavaPackage: this.javaPackageGuesser,
         getJsPackage: this.jsPackageGuesser,
         getProgram: () => this.program,
-        getTypeMap: () => this
+        getTypeMap: () => this,
+        getSourcePath: sourceFile => tsTools.getSourcePath(sourceFile, this.sourceBaseDirectory)
     }
 
     constructor(private program: ts.Program,
         private javaPackageGuesser: { (symbol: ts.Symbol): string },
-        private jsPackageGuesser: { (symbol: ts.Symbol): string }) { }
+        private jsPackageGuesser: { (symbol: ts.Symbol): string },
+        // directory the source paths of the generated comments are relative to
+        private sourceBaseDirectory: string = null) { }
 
     nbGlobalClasses() {
         return this.globalClasses.size
@@ -51,18 +63,75 @@ export class TypescriptToJavaTypemap {
         return result
     }
 
+    /** all the registered types, in their registration order */
+    getRegisteredTypes(): PreJavaType[] {
+        return Array.from(new Set(this.typeMap.values()))
+    }
+
     registerType(typeKey: any, type: PreJavaType) {
+        let previousType = this.typeMap.get(typeKey)
         this.typeMap.set(typeKey, type)
+
+        // a type which is not registered anymore must be walked through, the index has to be rebuilt
+        if (previousType && previousType != type)
+            this.usersIndexGeneration = 0
+
+        if (this.registeredTypes && !this.registeredTypes.has(type)) {
+            this.registeredTypes.add(type)
+            this.indexType(type)
+        }
     }
 
+    /**
+     * Replaces types in the whole type graph.
+     *
+     * Only the registered types which directly use (without going through another
+     * registered type) a replaced type are walked, thanks to an index of the users
+     * of each type. The index is built lazily and kept up to date by the substitutions
+     * and registrations ; it is rebuilt when the type graph has been modified by
+     * other means (see Signature.invalidateSignatures).
+     */
     substituteType(replacer: TypeReplacer): boolean {
+        // types are substituted in place, so any replacement may change the signatures of the types using it
+        let hasReplaced = false
+        let trackingReplacer: TypeReplacer = type => {
+            let replacement = replacer(type)
+            if (replacement != type)
+                hasReplaced = true
+            return replacement
+        }
+
+        this.ensureUsersIndex()
+
         let nbPassLeft = 10
         let somethingChanged = false
         while (nbPassLeft-- >= 0) {
+            // registered types having to be walked : the replaced ones and their users
+            let typesToProcess = new Set<PreJavaType>()
+            let candidates = new Set<PreJavaType>(this.registeredTypes)
+            this.users.forEach((users, type) => candidates.add(type))
+            candidates.forEach(type => {
+                if (replacer(type) == type)
+                    return
+                if (this.registeredTypes.has(type))
+                    typesToProcess.add(type)
+                let users = this.users.get(type)
+                users && users.forEach(user => typesToProcess.add(user))
+            })
+
+            // the other registered types stay as they are, this stops the walk at them
             let cache = new Map<PreJavaType, PreJavaType>()
+            this.registeredTypes.forEach(type => {
+                if (!typesToProcess.has(type))
+                    cache.set(type, type)
+            })
+
             somethingChanged = false
             for (let [typeKey, type] of this.typeMap.entries()) {
-                let substitute = type.substituteType(replacer, cache, new Set())
+                if (!typesToProcess.has(type))
+                    continue
+
+                let substitute = type.substituteType(trackingReplacer, cache, new Set())
 
                 if (!substitute)
                     this.typeMap.delete(typeKey)
@@ -71,6 +140,9 @@ export class TypescriptToJavaTypemap {
 
                 somethingChanged = somethingChanged || (substitute != type)
             }
+
+            this.updateUsersIndex(typesToProcess)
+
             if (!somethingChanged)
                 break
         }
@@ -78,9 +150,127 @@ export class TypescriptToJavaTypemap {
         if (!nbPassLeft)
             console.log(`WARNING : substituteType did not manage to finish in 10 passes !`)
 
+        if (hasReplaced) {
+            Signature.invalidateSignatures()
+            // the index has been maintained during the substitution
+            this.usersIndexGeneration = Signature.getTypeGraphGeneration()
+        }
+
         return somethingChanged
     }
 
+    /** the types a registered type is made of, up to the other registered types */
+    getDirectReferences(type: PreJavaType): Set<PreJavaType> {
+        this.ensureUsersIndex()
+        return this.directReferences.get(type) || new Set<PreJavaType>()
+    }
+
+    private ensureUsersIndex() {
+        if (this.registeredTypes && this.usersIndexGeneration == Signature.getTypeGraphGeneration())
+            return
+
+        this.registeredTypes = new Set(this.typeMap.values())
+        this.directReferences = new Map()
+        this.users = new Map()
+        this.registeredTypes.forEach(type => this.indexType(type))
+        this.usersIndexGeneration = Signature.getTypeGraphGeneration()
+    }
+
+    /** reindexes the processed types and the ones which replaced them */
+    private updateUsersIndex(processedTypes: Set<PreJavaType>) {
+        processedTypes.forEach(type => {
+            this.unindexType(type)
+            this.registeredTypes.delete(type)
+        })
+
+        for (let type of this.typeMap.values()) {
+            if (!this.registeredTypes.has(type)) {
+                this.registeredTypes.add(type)
+                this.indexType(type)
+            }
+        }
+    }
+
+    private indexType(type: PreJavaType) {
+        let references = new Set<PreJavaType>()
+        this.browseDirectReferences(type, reference => references.add(reference))
+        this.directReferences.set(type, references)
+
+        references.forEach(reference => {
+            let users = this.users.get(reference)
+            if (!users) {
+                users = new Set()
+                this.users.set(reference, users)
+            }
+            users.add(type)
+        })
+    }
+
+    private unindexType(type: PreJavaType) {
+        let references = this.directReferences.get(type)
+        if (!references)
+            return
+
+        references.forEach(reference => {
+            let users = this.users.get(reference)
+            if (!users)
+                return
+            users.delete(type)
+            if (!users.size)
+                this.users.delete(reference)
+        })
+        this.directReferences.delete(type)
+    }
+
+    /** visits the types a registered type is made of, without entering the other registered types (same walk as substituteType) */
+    private browseDirectReferences(root: PreJavaType, visitor: (type: PreJavaType) => void) {
+        let visited = new Set<PreJavaType>()
+
+        let browseSignature = (signature: PreJavaTypeCallSignature) => {
+            browse(signature.returnType)
+            signature.typeParameters && signature.typeParameters.forEach(browse)
+            signature.parameters && signature.parameters.forEach(p => browse(p.type))
+        }
+
+        let browse = (type: PreJavaType) => {
+            if (!type || visited.has(type))
+                return
+            visited.add(type)
+
+            if (type != root) {
+                visitor(type)
+                if (this.registeredTypes.has(type))
+                    return
+            }
+
+            Visit.visitPreJavaType(type, {
+                caseClassOrInterfaceType: type => {
+                    type.typeParameters && type.typeParameters.forEach(browse)
+                    type.baseTypes && type.baseTypes.forEach(browse)
+                    type.constructorSignatures && type.constructorSignatures.forEach(browseSignature)
+                    type.callSignatures && type.callSignatures.forEach(browseSignature)
+                    type.staticProperties && type.staticProperties.forEach(p => browse(p.type))
+                    type.staticMethods && type.staticMethods.forEach(browseSignature)
+                    type.properties && type.properties.forEach(p => browse(p.type))
+                    type.methods && type.methods.forEach(browseSignature)
+                    type.typedEvents && type.typedEvents.forEach(p => browse(p.type))
+                    browse(type.typedEventOptions)
+                    browse(type.numberIndexType)
+                    browse(type.stringIndexType)
+                },
+                caseUnion: type => type.types && type.types.forEach(browse),
+                caseReferenceType: type => {
+                    browse(type.type)
+                    type.typeParameters && type.typeParameters.forEach(browse)
+                },
+                caseTPEnvironnement: type => browse(type.type),
+                caseTypeParameter: type => browse(type.constraint)
+            })
+        }
+
+        browse(root)
+    }
+
     hasSubType(type: PreJavaType) {
         for (let visited of this.typeMap.values()) {
             let hasTypeAsSuperType = Visit.visitPreJavaType(visited, {
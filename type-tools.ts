@@ -211,4 +211,9 @@ export function hasIndexInTypeHierarchy(type: PreJavaType) {
     let res = hasIndexInTypeHierarchyInternal(type)
     hasIndexCache.set(type, res)
     return res
-}
\ No newline at end of file
+}
+/** name of the method registering a listener of the event : 'click' -> 'onClick' */
+export function getTypedEventListenerName(eventName: string) {
+    let name = eventName.replace(/[^A-Za-z0-9_$]/g, '_')
+    return `on${name.substring(0, 1).toUpperCase()}${name.substring(1)}`
+}